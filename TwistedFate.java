@@ -1,44 +1,91 @@
 import genius.core.AgentID;
 import genius.core.Bid;
+import genius.core.Domain;
 import genius.core.actions.*;
 import genius.core.bidding.BidDetails;
 import genius.core.boaframework.SortedOutcomeSpace;
 import genius.core.issue.Issue;
 import genius.core.issue.IssueDiscrete;
+import genius.core.issue.IssueInteger;
+import genius.core.issue.IssueReal;
+import genius.core.issue.Value;
+import genius.core.issue.ValueInteger;
+import genius.core.issue.ValueReal;
 import genius.core.misc.Pair;
 import genius.core.misc.Range;
 import genius.core.parties.AbstractNegotiationParty;
 import genius.core.parties.NegotiationInfo;
 import genius.core.timeline.DiscreteTimeline;
+import genius.core.timeline.TimeLineInfo;
 import genius.core.utility.AdditiveUtilitySpace;
-
+import genius.core.utility.Evaluator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class TwistedFate extends AbstractNegotiationParty {
     /**
      * Context Information
      * <p>
-     * CTX_TOTAL_ROUNDS: Total number of rounds in the negotiation
+     * CTX_TOTAL_ROUNDS: Total number of rounds in the negotiation, 0 on a continuous timeline
      * CTX_SESSION_PARTIES: Total number of parties in the negotiation
      * CTX_MIN_UTILITY: Minimum utility that can be achieved in the negotiation
      * CTX_MAX_UTILITY: Maximum utility that can be achieved in the negotiation
      * CTX_RESERVATION_VALUE: Reservation value of the agent
      * CTX_DISCOUNT_FACTOR: Discount factor of the agent
      * CTX_CONCESSION_FACTOR: Concession factor of the agent
-     * CTX_ALL_BIDS: All possible bids in the negotiation
+     * CTX_OUTCOMES: All possible bids in the negotiation, indexed by utility
+     * CTX_LAZY_THRESHOLD: Number of outcomes above which the outcome space is explored lazily
+     * CTX_PARALLEL_INIT: Whether the outcome index is built in parallel from our tabulated utilities, instead of from SortedOutcomeSpace
+     * CTX_BUCKETS: Maximum number of ordinals of an integer or real issue, wider ranges are bucketed
+     * CTX_SAMPLES: Number of local searches for the neighbourhood bids when the outcome space is bucketed
+     * CTX_RANGE_LIMIT: Most bids a query of a lazily explored outcome space collects, larger ranges are sampled
      * CTX_BEST_BID: Best bid of the agent
-     * CTX_TIMELINE: Timeline of the negotiation
-     * CTX_OUTCOME_SPACE: Outcome space of the negotiation
+     * CTX_TIMELINE: Timeline of the negotiation, discrete (rounds) or continuous (real time)
+     * CTX_TURNS: Number of our turns so far, the round on a continuous timeline
+     * CTX_BUDGET: Time budget of the bid search in the current turn
      * CTX_ISSUES: Issues of the negotiation
+     * CTX_CODEC: Compact encoding of the bids in the outcome space
+     * CTX_UTILITIES: Our (cached) utility of bids, with the discount of the current round
+     * CTX_NEIGHBOURHOOD: Reusable buffer for the bids around the target utility
+     * CTX_SAMPLER: Weighted random selection among the neighbourhood bids
+     * CTX_JOINT: Selection of the next bid against all opponent models at once (multilateral sessions)
+     * CTX_MODEL_STORE: The opponent models of earlier sessions, null if they are not kept
      **/
     int CTX_TOTAL_ROUNDS, CTX_SESSION_PARTIES;
     double CTX_MIN_UTILITY, CTX_MAX_UTILITY, CTX_RESERVATION_VALUE, CTX_DISCOUNT_FACTOR, CTX_CONCESSION_FACTOR;
-    List<Bid> CTX_ALL_BIDS;
+    OutcomeIndex CTX_OUTCOMES;
+    long CTX_LAZY_THRESHOLD = 250_000;
+    boolean CTX_PARALLEL_INIT = true;
+    int CTX_BUCKETS = 32, CTX_SAMPLES = 256;
+    int CTX_RANGE_LIMIT = 1 << 16;
     Bid CTX_BEST_BID;
-    DiscreteTimeline CTX_TIMELINE;
-    SortedOutcomeSpace CTX_OUTCOME_SPACE;
+    TimeLineInfo CTX_TIMELINE;
+    int CTX_TURNS;
+    SearchBudget CTX_BUDGET;
     List<Issue> CTX_ISSUES;
+    BidCodec CTX_CODEC;
+    UtilityService CTX_UTILITIES;
+    Candidates CTX_NEIGHBOURHOOD;
+    BidSampler CTX_SAMPLER;
+    JointSelection CTX_JOINT;
+    ModelStore CTX_MODEL_STORE;
 
     /**
      * Opponent Modelling
@@ -46,10 +93,40 @@ public class TwistedFate extends AbstractNegotiationParty {
      * OPP_MODELS: List of opponent models (one for each opponent)
      * OPP_ACTION: Last action of the opponent
      * OPP_MODEL_AVAIL: Availability of the opponent model
+     * OPP_WINDOW_SIZE: Number of recent bids the short term (running) bid is chosen from
+     * OPP_JOINT_OBJECTIVE: How the opponent models are combined with more than two parties, null to only use the last sender
+     * OPP_JOINT_CANDIDATES: Maximum number of neighbourhood bids scored against all models in one round
+     * OPP_PARALLEL_THRESHOLD: Number of neighbourhood bids above which they are scored in parallel
+     * OPP_PARETO_BAND: How far below the Pareto frontier bids are kept, as a share of the highest possible estimate
+     * OPP_STORE: Directory the opponent models are kept in between sessions, none if null
+     * OPP_STORE_DECAY: The share of the evidence of earlier sessions that is still counted
+     * OPP_DECAY: The weight a bid keeps with every later bid of the same opponent, below one the models are
+     *            bounded in memory and follow opponents that change their strategy (see DecayedPreferenceModel)
      **/
     Map<AgentID, PreferenceModel> OPP_MODELS;
     Pair<AgentID, Bid> OPP_ACTION;
     boolean OPP_MODEL_AVAIL = true;
+    int OPP_WINDOW_SIZE = 3;
+    JointObjective OPP_JOINT_OBJECTIVE = JointObjective.NASH_PRODUCT;
+    int OPP_JOINT_CANDIDATES = 1 << 16;
+    int OPP_PARALLEL_THRESHOLD = 1 << 12;
+    double OPP_PARETO_BAND = 0.05;
+    String OPP_STORE = System.getProperty("twistedfate.models");
+    double OPP_STORE_DECAY = 0.5;
+    double OPP_DECAY = 1;
+
+    /**
+     * Search Budget (real-time negotiations only)
+     * <p>
+     * TIME_BUDGET_SHARE: The most of the time between our turns the bid search may take
+     * TIME_BUDGET_HEADROOM: How much more time than the recent complete searches took the next search gets
+     * TIME_MIN_BUDGET: The time in nanoseconds the bid search always gets
+     * TIME_INIT_SHARE: The most of the negotiation time building the outcome index may take
+     **/
+    double TIME_BUDGET_SHARE = 0.25;
+    double TIME_BUDGET_HEADROOM = 2;
+    long TIME_MIN_BUDGET = 1_000_000;
+    double TIME_INIT_SHARE = 0.02;
 
     DecimalFormat df = new DecimalFormat("0.000");
     String RESET = "\033[0m",
@@ -61,10 +138,36 @@ public class TwistedFate extends AbstractNegotiationParty {
             CYAN = "\033[1;36m",
             WHITE = "\033[1;37m";
 
+    /**
+     * Logging
+     * <p>
+     * LOGGING: Whether the session is logged at all
+     * LOG_FILE: File the negotiation events are written to (CSV, or JSON lines for .jsonl), the console if null
+     * LOG_SINK: Destination of the negotiation events, chosen from the two settings above if null
+     * CTX_EVENTS: Event log of the session, drained off the negotiating thread
+     **/
     boolean LOGGING = true;
+    String LOG_FILE = System.getProperty("twistedfate.events");
+    EventSink LOG_SINK;
+    EventLog CTX_EVENTS;
+
+    /**
+     * Metrics
+     * <p>
+     * METRICS: Whether the latency and allocation of the hot paths are measured
+     * METRICS_FILE: File the metrics of every session are appended to as a JSON line, none if null
+     * CTX_METRICS: Metrics of the session, returned from negotiationEnded
+     **/
+    boolean METRICS = true;
+    String METRICS_FILE = System.getProperty("twistedfate.metrics");
+    Metrics CTX_METRICS;
 
     void log(Object o) {
-        if (LOGGING) System.out.println(o);
+        if (LOGGING) {
+            if (CTX_EVENTS != null)
+                CTX_EVENTS.drain();
+            System.out.println(o);
+        }
     }
 
     @Override
@@ -74,35 +177,34 @@ public class TwistedFate extends AbstractNegotiationParty {
 
     @Override
     public void init(NegotiationInfo info) {
-        super.init(info);
-
-        CTX_TIMELINE = (DiscreteTimeline) info.getTimeline();
-        CTX_TOTAL_ROUNDS = CTX_TIMELINE.getTotalRounds() - 1;
-        CTX_OUTCOME_SPACE = new SortedOutcomeSpace(utilitySpace);
-
-        List<BidDetails> bids = CTX_OUTCOME_SPACE.getAllOutcomes();
+        CTX_METRICS = new Metrics(METRICS);
+        long start = CTX_METRICS.start();
 
-        CTX_ALL_BIDS = new ArrayList<>();
-        for(BidDetails bid : bids)
-            CTX_ALL_BIDS.add(bid.getBid());
-
-        CTX_BEST_BID = bids.get(0).getBid();
+        super.init(info);
 
-        CTX_MIN_UTILITY = getUtility(bids.get(bids.size() - 1).getBid());
-        CTX_MAX_UTILITY = getUtility(bids.get(0).getBid());
-        CTX_RESERVATION_VALUE = utilitySpace.getReservationValueUndiscounted();
-        CTX_DISCOUNT_FACTOR = utilitySpace.getDiscountFactor();
+        if (LOG_SINK == null) {
+            LOG_SINK = LOGGING ? new ConsoleEventSink() : NO_EVENTS;
+            if (LOGGING && LOG_FILE != null) {
+                try {
+                    LOG_SINK = new FileEventSink(LOG_FILE);
+                } catch (IOException e) {
+                    log(RED + "Cannot write events to " + LOG_FILE + ", logging to the console instead" + RESET);
+                }
+            }
+        }
+        CTX_EVENTS = new EventLog(LOG_SINK, 1024);
 
-        CTX_CONCESSION_FACTOR = 0.10;
+        CTX_TIMELINE = info.getTimeline();
+        if (CTX_TIMELINE instanceof DiscreteTimeline)
+            CTX_TOTAL_ROUNDS = ((DiscreteTimeline) CTX_TIMELINE).getTotalRounds() - 1;
+        CTX_BUDGET = new SearchBudget(!(CTX_TIMELINE instanceof DiscreteTimeline), TIME_BUDGET_SHARE, TIME_BUDGET_HEADROOM, TIME_MIN_BUDGET);
 
-        CTX_ISSUES = utilitySpace.getDomain().getIssues();
+        // Our own copy, since it is sorted by our weights and the domain may be shared with other sessions
+        CTX_ISSUES = new ArrayList<>(utilitySpace.getDomain().getIssues());
 
-        for (Issue issue : CTX_ISSUES) {
-            if (!(issue instanceof IssueDiscrete)) {
-                OPP_MODEL_AVAIL = false;
-                break;
-            }
-        }
+        boolean discreteOnly = true;
+        for (Issue issue : CTX_ISSUES)
+            discreteOnly &= issue instanceof IssueDiscrete;
 
         if (OPP_MODEL_AVAIL)
             OPP_MODELS = new HashMap<>();
@@ -111,9 +213,45 @@ public class TwistedFate extends AbstractNegotiationParty {
 
         CTX_ISSUES.sort(Comparator.comparingDouble(o -> -1 * additiveUtilitySpace.getWeight(o.getNumber())));
 
+        CTX_CODEC = new BidCodec(utilitySpace.getDomain(), CTX_ISSUES, CTX_BUCKETS);
+        CTX_UTILITIES = new UtilityService(additiveUtilitySpace, CTX_CODEC);
+        CTX_NEIGHBOURHOOD = new Candidates(CTX_CODEC.width());
+        CTX_SAMPLER = new BidSampler(new SplittableRandom(info.getRandomSeed()));
+        CTX_JOINT = new JointSelection();
+
+        if (OPP_MODEL_AVAIL && OPP_STORE != null)
+            CTX_MODEL_STORE = new ModelStore(OPP_STORE, CTX_CODEC, OPP_STORE_DECAY);
+
+        // Bucketed (integer or real) issues cannot be enumerated at all, neighbourhoods are sampled instead
+        // Large domains are never materialised either, bids are generated on demand
+        if (!CTX_CODEC.exact)
+            CTX_OUTCOMES = new SampledOutcomeIndex(CTX_CODEC, CTX_UTILITIES.issueUtilities, CTX_BUDGET, CTX_SAMPLER.random, CTX_SAMPLES, CTX_RANGE_LIMIT);
+        else if (!discreteOnly || utilitySpace.getDomain().getNumberOfPossibleBids() > CTX_LAZY_THRESHOLD)
+            CTX_OUTCOMES = new LazyOutcomeIndex(CTX_CODEC, CTX_UTILITIES.issueUtilities, CTX_BUDGET, CTX_SAMPLER.random, CTX_RANGE_LIMIT);
+        else if (CTX_PARALLEL_INIT) {
+            // On a real-time timeline the index has to be ready in a share of the time, the lazy index needs no construction at all
+            CTX_BUDGET.startSearch((long) (TIME_INIT_SHARE * CTX_TIMELINE.getTotalTime() * 1e9));
+            CTX_OUTCOMES = SortedOutcomeIndex.build(CTX_CODEC, CTX_UTILITIES.issueUtilities, CTX_BUDGET, 1 << 13);
+            if (CTX_OUTCOMES == null)
+                CTX_OUTCOMES = new LazyOutcomeIndex(CTX_CODEC, CTX_UTILITIES.issueUtilities, CTX_BUDGET, CTX_SAMPLER.random, CTX_RANGE_LIMIT);
+        } else
+            CTX_OUTCOMES = new SortedOutcomeIndex(new SortedOutcomeSpace(utilitySpace).getAllOutcomes(), CTX_CODEC, CTX_BUDGET);
+
+        CTX_BEST_BID = CTX_OUTCOMES.getBestBid();
+
+        CTX_MIN_UTILITY = CTX_OUTCOMES.getMinUtility();
+        CTX_MAX_UTILITY = CTX_OUTCOMES.getMaxUtility();
+        CTX_RESERVATION_VALUE = utilitySpace.getReservationValueUndiscounted();
+        CTX_DISCOUNT_FACTOR = utilitySpace.getDiscountFactor();
+
+        CTX_CONCESSION_FACTOR = 0.10;
+
         log(BLUE + "-------------------------------------------SESSION INFO-------------------------------------------");
 
-        log("Total Rounds: " + CTX_TOTAL_ROUNDS);
+        if (CTX_TOTAL_ROUNDS > 0)
+            log("Total Rounds: " + CTX_TOTAL_ROUNDS);
+        else
+            log("Total Time: " + df.format(CTX_TIMELINE.getTotalTime()) + "s");
         log("");
 
         log("Preference Profile");
@@ -130,6 +268,19 @@ public class TwistedFate extends AbstractNegotiationParty {
 
         log("-------------------------------------------SESSION INFO-------------------------------------------" + RESET);
         log("");
+
+        CTX_METRICS.initNanos = CTX_METRICS.start() - start;
+    }
+
+    @Override
+    public Action chooseAction(List<Class<? extends Action>> possibleActions) {
+        long start = CTX_METRICS.start(), allocated = CTX_METRICS.getAllocatedBytes();
+
+        Action action = nextAction(possibleActions);
+
+        CTX_METRICS.chooseActionBytes += CTX_METRICS.getAllocatedBytes() - allocated;
+        CTX_METRICS.stop(CTX_METRICS.chooseAction, start);
+        return action;
     }
 
     /**
@@ -140,39 +291,71 @@ public class TwistedFate extends AbstractNegotiationParty {
      *
      * @return Action to be taken
      */
-    @Override
-    public Action chooseAction(List<Class<? extends Action>> possibleActions) {
+    Action nextAction(List<Class<? extends Action>> possibleActions) {
+        ++CTX_TURNS;
+        CTX_BUDGET.startTurn(getRemainingNanos());
+
         double currentTime = CTX_TIMELINE.getTime();
-        int currentRound = CTX_TIMELINE.getRound();
+        int currentRound = getRound();
+        boolean lastTurn = isLastTurn();
 
         if (OPP_ACTION == null) {
-            log(PURPLE + "[" + currentRound + "] " + CYAN + "START (" + df.format(getUtilityWithDiscount(CTX_BEST_BID)) + ")" + RESET);
+            CTX_EVENTS.record(currentRound, null, EventType.START, CTX_MAX_UTILITY * CTX_UTILITIES.getDiscount());
             return new Offer(getPartyId(), CTX_BEST_BID);
         }
 
-        double oppBidUtility = getUtilityWithDiscount(OPP_ACTION.getSecond());
+        double oppBidUtility = CTX_UTILITIES.getUtilityWithDiscount(OPP_ACTION.getSecond());
 
-        if (oppBidUtility >= 0.85 || currentRound == CTX_TOTAL_ROUNDS) {
-            log(GREEN + "-> ACCEPT (" + df.format(oppBidUtility) + ")");
+        if (oppBidUtility >= 0.85 || lastTurn) {
+            CTX_EVENTS.record(currentRound, null, EventType.ACCEPT, oppBidUtility);
             return new Accept(getPartyId(), OPP_ACTION.getSecond());
         }
 
         if (currentTime < 0.25) {
-            log(CYAN + "-> OFFER (" + df.format(getUtilityWithDiscount(CTX_BEST_BID)) + ")" + RESET);
+            CTX_EVENTS.record(currentRound, null, EventType.OFFER, CTX_MAX_UTILITY * CTX_UTILITIES.getDiscount());
             return new Offer(getPartyId(), CTX_BEST_BID);
         }
 
+        long start = CTX_METRICS.start();
+        CTX_BUDGET.startSearch();
         Bid myNextBid = findOptimalBid(currentTime, OPP_ACTION.getFirst());
-        double myNextBidUtility = getUtilityWithDiscount(myNextBid);
+        CTX_BUDGET.stopSearch();
+        CTX_METRICS.stop(CTX_METRICS.findOptimalBid, start);
+        CTX_METRICS.record(CTX_METRICS.neighbourhood, CTX_NEIGHBOURHOOD.size);
+        double myNextBidUtility = CTX_UTILITIES.getUtilityWithDiscount(myNextBid);
 
-        if (oppBidUtility >= myNextBidUtility || currentRound == CTX_TOTAL_ROUNDS) {
-            log(GREEN + "ACCEPT (" + df.format(oppBidUtility) + ")" + RESET);
+        if (oppBidUtility >= myNextBidUtility || lastTurn) {
+            CTX_EVENTS.record(currentRound, null, EventType.ACCEPT, oppBidUtility);
             return new Accept(getPartyId(), OPP_ACTION.getSecond());
         }
 
         return new Offer(getPartyId(), myNextBid);
     }
 
+    /**
+     * Get the current round, which on a continuous timeline is the number of our turns so far.
+     */
+    int getRound() {
+        return CTX_TIMELINE instanceof DiscreteTimeline ? ((DiscreteTimeline) CTX_TIMELINE).getRound() : CTX_TURNS;
+    }
+
+    /**
+     * Get the time left in the negotiation, in nanoseconds (continuous timelines count in seconds).
+     */
+    long getRemainingNanos() {
+        return (long) (Math.max(0, CTX_TIMELINE.getTotalTime() - CTX_TIMELINE.getCurrentTime()) * 1e9);
+    }
+
+    /**
+     * Whether the opponent will not get to answer another offer of ours: the last round, or
+     * less time left than two of our turns took recently.
+     */
+    boolean isLastTurn() {
+        if (CTX_TIMELINE instanceof DiscreteTimeline)
+            return getRound() == CTX_TOTAL_ROUNDS;
+        return CTX_BUDGET.isLastTurn(getRemainingNanos());
+    }
+
     /**
      * Upon receiving an action from the opponent, update the opponent model.
      *
@@ -185,12 +368,23 @@ public class TwistedFate extends AbstractNegotiationParty {
      */
     @Override
     public void receiveMessage(AgentID sender, Action action) {
+        long start = CTX_METRICS.start(), allocated = CTX_METRICS.getAllocatedBytes();
+
+        handleMessage(sender, action);
+
+        CTX_METRICS.receiveMessageBytes += CTX_METRICS.getAllocatedBytes() - allocated;
+        CTX_METRICS.stop(CTX_METRICS.receiveMessage, start);
+    }
+
+    void handleMessage(AgentID sender, Action action) {
         super.receiveMessage(sender, action);
 
-        int currentRound = CTX_TIMELINE.getRound();
+        int currentRound = getRound();
 
-        if(!OPP_MODELS.containsKey(sender)) {
-            OPP_MODELS.put(sender, new PreferenceModel(utilitySpace.getDomain().getIssues()));
+        if (OPP_MODEL_AVAIL && !OPP_MODELS.containsKey(sender)) {
+            OPP_MODELS.put(sender, newModel());
+            if (sender != null && CTX_MODEL_STORE != null)
+                loadModel(sender);
         }
 
         if (action instanceof Inform) {
@@ -206,20 +400,22 @@ public class TwistedFate extends AbstractNegotiationParty {
         if (action instanceof Offer) {
             OPP_ACTION = new Pair<>(sender, ((Offer) action).getBid());
 
-            log(PURPLE + "[" + currentRound + "][" + OPP_ACTION.getFirst() + "] " + WHITE + "RECEIVE (" + df.format(getUtilityWithDiscount(OPP_ACTION.getSecond())) + ")" + RESET);
+            CTX_EVENTS.record(currentRound, sender, EventType.RECEIVE_OFFER, CTX_UTILITIES.getUtilityWithDiscount(OPP_ACTION.getSecond()));
 
             if (OPP_MODEL_AVAIL) {
                 OPP_MODELS.get(sender).addToBidHistory(OPP_ACTION.getSecond());
+                long start = CTX_METRICS.start();
                 OPP_MODELS.get(sender).update(OPP_ACTION.getSecond());
+                CTX_METRICS.stop(CTX_METRICS.update, start);
             }
         }
 
         if (action instanceof Accept) {
-            log(PURPLE + "[" + currentRound + "][" + sender + "] " + GREEN + "ACCEPT" + RESET);
+            CTX_EVENTS.record(currentRound, sender, EventType.RECEIVE_ACCEPT, Double.NaN);
         }
 
         if (action instanceof EndNegotiationWithAnOffer) {
-            log(PURPLE + "[" + currentRound + "] " + RED + "END NEGOTIATION");
+            CTX_EVENTS.record(currentRound, sender, EventType.END, Double.NaN);
             new Accept(getPartyId(), ((EndNegotiationWithAnOffer) action).getBid());
         }
     }
@@ -236,14 +432,63 @@ public class TwistedFate extends AbstractNegotiationParty {
         log(BLUE + "-------------------------------------------SESSION INFO-------------------------------------------");
 
         if (acceptedBid != null)
-            log(GREEN + "Agreement: " + acceptedBid + "(" + getUtilityWithDiscount(acceptedBid) + ")" + RESET);
+            log(GREEN + "Agreement: " + acceptedBid + "(" + CTX_UTILITIES.getUtilityWithDiscount(acceptedBid) + ")" + RESET);
         else
             log(RED  + "Negotiation ended without an agreement" + RESET);
 
         log(BLUE + "-------------------------------------------SESSION INFO-------------------------------------------" + RESET);
         log("");
 
-        return null;
+        if (CTX_MODEL_STORE != null)
+            saveModels();
+
+        CTX_EVENTS.close();
+
+        HashMap<String, String> metrics = CTX_METRICS.toMap();
+        if (CTX_EVENTS.dropped > 0)
+            metrics.put("events.dropped", Long.toString(CTX_EVENTS.dropped));
+        if (METRICS && METRICS_FILE != null) {
+            try {
+                Metrics.write(METRICS_FILE, metrics);
+            } catch (IOException e) {
+                log(RED + "Cannot write the metrics: " + e.getMessage() + RESET);
+            }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Start the model of a new sender from what was learned about it in earlier sessions.
+     */
+    void loadModel(AgentID sender) {
+        try {
+            int[][] counts = CTX_MODEL_STORE.load(sender);
+            if (counts != null)
+                OPP_MODELS.get(sender).warmStart(counts);
+        } catch (IOException e) {
+            log(RED + "Cannot read the model of " + sender + ": " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Create the model of a new opponent, decayed if OPP_DECAY is below one.
+     */
+    PreferenceModel newModel() {
+        return OPP_DECAY < 1 ? new DecayedPreferenceModel(CTX_ISSUES, OPP_DECAY) : new PreferenceModel(CTX_ISSUES);
+    }
+
+    void saveModels() {
+        for (Map.Entry<AgentID, PreferenceModel> model : OPP_MODELS.entrySet()) {
+            if (model.getKey() == null || model.getValue().totalBids == 0)
+                continue;
+
+            try {
+                CTX_MODEL_STORE.save(model.getKey(), model.getValue().getCounts(), model.getValue().totalBids);
+            } catch (IOException e) {
+                log(RED + "Cannot store the model of " + model.getKey() + ": " + e.getMessage() + RESET);
+            }
+        }
     }
 
     /**
@@ -261,238 +506,2668 @@ public class TwistedFate extends AbstractNegotiationParty {
         timeBasedUtility = Math.max(timeBasedUtility, CTX_RESERVATION_VALUE);
 
         if (OPP_MODEL_AVAIL) {
-            Bid optimalBid = OPP_MODELS.get(sender).getOptimalBid(timeBasedUtility);
-            double optimalBidUtility = getUtilityWithDiscount(optimalBid);
+            Bid optimalBid = OPP_JOINT_OBJECTIVE != null && CTX_SESSION_PARTIES > 2 ? CTX_JOINT.getOptimalBid(timeBasedUtility, OPP_MODELS.get(sender)) : OPP_MODELS.get(sender).getOptimalBid(timeBasedUtility);
+            double optimalBidUtility = CTX_UTILITIES.getUtilityWithDiscount(optimalBid);
 
+            // A decayed model lets the best bid count less the longer ago it was received
             Bid opponentBestBid = OPP_MODELS.get(sender).getBestBid();
-            double opponentBestBidUtility = getUtilityWithDiscount(opponentBestBid);
+            double opponentBestBidUtility = OPP_MODELS.get(sender).getBestBidScore() * CTX_UTILITIES.getDiscount();
 
             Bid opponentRunningBid = OPP_MODELS.get(sender).getRunningBid();
-            double opponentRunningBidUtility = getUtilityWithDiscount(opponentRunningBid);
+            double opponentRunningBidUtility = CTX_UTILITIES.getUtilityWithDiscount(opponentRunningBid);
 
-            optimalBid = optimalBidUtility > opponentBestBidUtility ? optimalBid : opponentBestBidUtility > opponentRunningBidUtility ? opponentBestBid : opponentRunningBid;
-            optimalBidUtility = getUtilityWithDiscount(optimalBid);
+            if (optimalBidUtility <= opponentBestBidUtility) {
+                optimalBid = opponentBestBidUtility > opponentRunningBidUtility ? opponentBestBid : opponentRunningBid;
+                // The decayed score of the best bid is not what the bid is worth to us
+                optimalBidUtility = CTX_UTILITIES.getUtilityWithDiscount(optimalBid);
+            }
 
-            log(CYAN + "-> " + YELLOW + "[BEST:" + df.format(getUtilityWithDiscount(CTX_BEST_BID)) + ", LONG TERM: " + df.format(opponentBestBidUtility) + ", SHORT TERM: " + df.format(opponentRunningBidUtility) + ", OPTIMAL: " + df.format(optimalBidUtility) + "]" + CYAN + " -> OFFER (" + df.format(optimalBidUtility) + ")" + RESET);
+            CTX_EVENTS.record(getRound(), null, EventType.OFFER, optimalBidUtility, CTX_MAX_UTILITY * CTX_UTILITIES.getDiscount(), opponentBestBidUtility, opponentRunningBidUtility, optimalBidUtility);
 
             return optimalBid;
         }
 
-        return CTX_OUTCOME_SPACE.getBidNearUtility(timeBasedUtility).getBid();
+        return CTX_OUTCOMES.getBidNearUtility(timeBasedUtility);
     }
 
-    class PreferenceModel {
+    /**
+     * Get the range of bids the next bid is chosen from, around the time-based utility.
+     *
+     * @param timeBasedUtility
+     *             The utility of the bid based on the time.
+     *
+     * @return The range, in undiscounted utility like the outcome index.
+     */
+    Range getNeighbourhood(double timeBasedUtility) {
+        double neighbourhoodRadius = Math.max(0.1, 0.1 * (1 - timeBasedUtility));
+
+        Range neighbourhood = new Range(Math.max(timeBasedUtility - neighbourhoodRadius, CTX_MIN_UTILITY), Math.min(timeBasedUtility + neighbourhoodRadius, CTX_MAX_UTILITY));
+
+        // The neighbourhood is expressed in discounted utility, the index in undiscounted utility
+        double discount = CTX_UTILITIES.getDiscount();
+        return new Range(neighbourhood.getLowerbound() / discount, neighbourhood.getUpperbound() / discount);
+    }
+
+    enum EventType {
+        START, OFFER, ACCEPT, RECEIVE_OFFER, RECEIVE_ACCEPT, END
+    }
+
+    static class Event {
         /**
-         * Preference Model of an Agent
+         * Negotiation Event (a reusable slot of the event log)
          * <p>
-         * frequencyTable: A table that stores the frequency of each issue value
-         * bidsReceived: Total number of bids received from this agent (aka. totalBids)
-         * domainIssues: The issues of the domain
-         * issueWeights: The weights of the issues
-         * bidHistory: A list of bids received from this agent
+         * round: The round the event happened in
+         * sender: The agent the action came from, null for our own actions
+         * type: What happened
+         * utility: Our discounted utility of the bid involved
+         * best, longTerm, shortTerm, optimal: The candidates weighed by findOptimalBid (NaN if not applicable)
          */
-        final List<Map<String, Integer>> frequencyTable = new ArrayList<>();
-        int bidsReceived, totalBids;
-        List<Issue> domainIssues;
-        double[] issueWeights;
+        int round;
+        AgentID sender;
+        EventType type;
+        double utility, best, longTerm, shortTerm, optimal;
+    }
 
-        List<Bid> bidHistory = new ArrayList<>();
+    /**
+     * Destination of drained events, only ever called from one thread at a time.
+     */
+    interface EventSink {
+        void write(Event event) throws IOException;
 
-        PreferenceModel(List<Issue> domainIssues) {
-            bidsReceived = 0;
+        default void flush() throws IOException {
+        }
 
-            this.domainIssues = domainIssues;
-            issueWeights = new double[domainIssues.size()];
-            for (int i = 0; i < domainIssues.size(); ++i) {
-                issueWeights[i] = 0;
+        default void close() throws IOException {
+        }
+    }
+
+    static final EventSink NO_EVENTS = event -> {
+    };
+
+    static class EventLog {
+        /**
+         * Event Log
+         * <p>
+         * events: Preallocated ring buffer of event slots (a power of two in size)
+         * sink: Where drained events are written to
+         * head: Sequence number of the next event to record (written by the negotiating thread only)
+         * tail: Sequence number of the next event to drain (written under the drain lock only)
+         * dropped: Number of events lost because the ring buffer was full (written by the negotiating thread only), reported
+         *          with the metrics of the session
+         * drainer: Background thread draining the ring buffer, parked while it is empty, null when events are discarded
+         */
+        final Event[] events;
+        final EventSink sink;
+        volatile long head, tail;
+        volatile boolean closed;
+        long dropped;
+        final Thread drainer;
+
+        EventLog(EventSink sink, int capacity) {
+            this.sink = sink;
+            events = new Event[Integer.highestOneBit(Math.max(2, capacity - 1)) << 1];
+            for (int i = 0; i < events.length; ++i)
+                events[i] = new Event();
+
+            if (sink == NO_EVENTS) {
+                drainer = null;
+                return;
             }
 
-            for (Issue domainIssue : domainIssues) {
-                IssueDiscrete issue = (IssueDiscrete) domainIssue;
-                int xValues = issue.getNumberOfValues();
-                Map<String, Integer> issueFrequency = new HashMap<>();
+            drainer = new Thread(() -> {
+                while (!closed) {
+                    if (drain() == 0)
+                        LockSupport.park(this);
+                }
+            }, "TwistedFate-events");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
 
-                for (int j = 0; j < xValues; ++j)
-                    issueFrequency.put(issue.getValue(j).toString(), 0);
+        /**
+         * Record an event. This never allocates or blocks: if the ring buffer is full the event is dropped.
+         */
+        void record(int round, AgentID sender, EventType type, double utility, double best, double longTerm, double shortTerm, double optimal) {
+            if (drainer == null)
+                return;
 
-                frequencyTable.add(issueFrequency);
+            long sequence = head;
+            if (sequence - tail == events.length) {
+                dropped++;
+                return;
             }
+
+            Event event = events[(int) sequence & (events.length - 1)];
+            event.round = round;
+            event.sender = sender;
+            event.type = type;
+            event.utility = utility;
+            event.best = best;
+            event.longTerm = longTerm;
+            event.shortTerm = shortTerm;
+            event.optimal = optimal;
+
+            head = sequence + 1;
+
+            // The drainer only parks after finding the ring buffer empty, so only the first event after that wakes it
+            if (sequence == tail)
+                LockSupport.unpark(drainer);
+        }
+
+        void record(int round, AgentID sender, EventType type, double utility) {
+            record(round, sender, type, utility, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
         }
 
         /**
-         * Update the preference model with a new bid.
+         * Write every recorded event to the sink.
          *
-         * @param bid
-         *            The bid to update the model with.
+         * @return The number of events drained.
          */
-        void update(Bid bid) {
-            if (bid == null || bid.getValues().size() != domainIssues.size())
-                return;
+        synchronized int drain() {
+            long start = tail, end = head;
+            if (start == end)
+                return 0;
+
+            try {
+                for (long sequence = start; sequence < end; ++sequence)
+                    sink.write(events[(int) sequence & (events.length - 1)]);
+                sink.flush();
+            } catch (IOException e) {
+                closed = true;
+                e.printStackTrace();
+            }
 
-            bidsReceived++;
-            totalBids = bidsReceived;
+            tail = end;
+            return (int) (end - start);
+        }
 
-            for (int i = 0; i < domainIssues.size(); ++i) {
-                String key = bid.getValue(i + 1).toString();
-                frequencyTable.get(i).put(key, frequencyTable.get(i).get(key) + 1);
+        /**
+         * Drain what is left and stop the background thread.
+         */
+        void close() {
+            if (drainer == null)
+                return;
+
+            closed = true;
+            LockSupport.unpark(drainer);
+            drain();
 
-                for (int j = 0; j < domainIssues.size(); ++j) {
-                    double mean = 0;
-                    for (Integer value : frequencyTable.get(j).values())
-                        mean += value;
-                    mean /= frequencyTable.get(j).size();
+            try {
+                sink.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                    double variance = 0;
-                    for (Integer value : frequencyTable.get(j).values())
-                        variance += Math.pow(value - mean, 2);
-                    variance /= frequencyTable.get(j).size();
+    class ConsoleEventSink implements EventSink {
+        final DecimalFormat format = new DecimalFormat("0.000");
 
-                    issueWeights[j] = Math.sqrt(variance);
-                }
+        @Override
+        public void write(Event event) {
+            switch (event.type) {
+                case START:
+                    System.out.println(PURPLE + "[" + event.round + "] " + CYAN + "START (" + format.format(event.utility) + ")" + RESET);
+                    break;
+                case OFFER:
+                    if (Double.isNaN(event.optimal))
+                        System.out.println(CYAN + "-> OFFER (" + format.format(event.utility) + ")" + RESET);
+                    else
+                        System.out.println(CYAN + "-> " + YELLOW + "[BEST:" + format.format(event.best) + ", LONG TERM: " + format.format(event.longTerm) + ", SHORT TERM: " + format.format(event.shortTerm) + ", OPTIMAL: " + format.format(event.optimal) + "]" + CYAN + " -> OFFER (" + format.format(event.utility) + ")" + RESET);
+                    break;
+                case ACCEPT:
+                    System.out.println(GREEN + "-> ACCEPT (" + format.format(event.utility) + ")" + RESET);
+                    break;
+                case RECEIVE_OFFER:
+                    System.out.println(PURPLE + "[" + event.round + "][" + event.sender + "] " + WHITE + "RECEIVE (" + format.format(event.utility) + ")" + RESET);
+                    break;
+                case RECEIVE_ACCEPT:
+                    System.out.println(PURPLE + "[" + event.round + "][" + event.sender + "] " + GREEN + "ACCEPT" + RESET);
+                    break;
+                case END:
+                    System.out.println(PURPLE + "[" + event.round + "] " + RED + "END NEGOTIATION" + RESET);
+                    break;
             }
         }
+    }
 
+    static class FileEventSink implements EventSink {
         /**
-         * Get the estimated utility of a bid based on the frequency table.
-         *
-         * @param bid
-         *            The bid to estimate the utility of.
-         * @return
-         *            The estimated utility of the bid.
+         * Writes events as CSV, or as JSON lines if the file name ends with .jsonl
+         * <p>
+         * Every session in the JVM appends to the same file, so each one buffers whole lines tagged with its session
+         * number and appends them under a single lock. The CSV header is only written to an empty file.
          */
-        double getEstimatedUtility(Bid bid) {
-            double utility = 0.0;
+        static final AtomicInteger SESSIONS = new AtomicInteger();
+
+        final Path file;
+        final boolean json;
+        final int session;
+        final StringBuilder lines = new StringBuilder();
+
+        FileEventSink(String fileName) throws IOException {
+            file = Paths.get(fileName);
+            json = fileName.endsWith(".jsonl");
+            session = SESSIONS.incrementAndGet();
+            Files.write(file, new byte[0], StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
 
-            if (totalBids == 0) return utility;
+        @Override
+        public void write(Event event) {
+            if (json) {
+                lines.append("{\"session\":" + session + ",\"round\":" + event.round + ",\"sender\":" + (event.sender == null ? "null" : "\"" + event.sender + "\"") + ",\"type\":\"" + event.type + "\",\"utility\":" + number(event.utility) + ",\"best\":" + number(event.best) + ",\"long_term\":" + number(event.longTerm) + ",\"short_term\":" + number(event.shortTerm) + ",\"optimal\":" + number(event.optimal) + "}\n");
+            } else {
+                lines.append(session + "," + event.round + "," + (event.sender == null ? "" : event.sender) + "," + event.type + "," + event.utility + "," + event.best + "," + event.longTerm + "," + event.shortTerm + "," + event.optimal + "\n");
+            }
+        }
 
-            double sumOfIssueUtility = 0;
-            double sumOfWeights = 0;
+        String number(double value) {
+            return Double.isNaN(value) ? "null" : Double.toString(value);
+        }
 
-            for (double weight : issueWeights)
-                sumOfWeights += weight;
+        @Override
+        public void flush() throws IOException {
+            if (lines.length() == 0)
+                return;
 
-            double[] normalizedIssueWeights = new double[issueWeights.length];
-            for (int i = 0; i < issueWeights.length; ++i)
-                normalizedIssueWeights[i] = issueWeights[i] / sumOfWeights;
+            synchronized (FileEventSink.class) {
+                if (!json && Files.size(file) == 0)
+                    lines.insert(0, "session,round,sender,type,utility,best,long_term,short_term,optimal\n");
+                Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            lines.setLength(0);
+        }
+    }
 
-            for (int i = 0; i < domainIssues.size(); ++i) {
-                String key = bid.getValue(i + 1).toString();
-                Integer currentValue = frequencyTable.get(i).get(key);
-                double issueUtility = (double) currentValue / totalBids;
-                sumOfIssueUtility += issueUtility * normalizedIssueWeights[i];
+    static class LatencyHistogram {
+        /**
+         * Log-linear Histogram (HdrHistogram-style)
+         * <p>
+         * Values below 128 get a bucket each, every power of two above that is split into 64 buckets, so a
+         * value is never more than 1.6% off the bucket it is counted in. Recording takes constant time and
+         * never allocates; values from 2^44 on (hours, in nanoseconds) are counted in the last bucket.
+         * <p>
+         * counts: The number of values in each bucket
+         * count, total, max: The number of values, their sum and the largest one
+         */
+        static final int SUB_BUCKETS = 64, MAX_SHIFT = 37;
+
+        // Values below 2^44 are shifted by at most MAX_SHIFT, the last bucket holds 2^44 - 1
+        final long[] counts = new long[2 * SUB_BUCKETS + MAX_SHIFT * SUB_BUCKETS];
+        long count, total, max;
+
+        void record(long value) {
+            value = Math.max(0, Math.min(value, (1L << 44) - 1));
+            ++counts[getIndex(value)];
+            ++count;
+            total += value;
+            max = Math.max(max, value);
+        }
+
+        static int getIndex(long value) {
+            if (value < 2 * SUB_BUCKETS)
+                return (int) value;
+            int shift = 57 - Long.numberOfLeadingZeros(value);
+            return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        static long getHighestValue(int index) {
+            if (index < 2 * SUB_BUCKETS)
+                return index;
+            int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+            long subBucket = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+
+        /**
+         * Get the value below or at which the given percentage of the values lies (as the top of its bucket).
+         */
+        long getValueAtPercentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count)), seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(getHighestValue(i), max);
             }
+            return max;
+        }
 
-            utility = sumOfIssueUtility / domainIssues.size();
-            return utility;
+        /**
+         * Add the summary of the histogram to the map, with values divided by the scale.
+         */
+        void report(String name, Map<String, String> into, double scale) {
+            into.put(name + ".count", Long.toString(count));
+            if (count == 0)
+                return;
+
+            into.put(name + ".mean", format(total / (double) count / scale));
+            into.put(name + ".p50", format(getValueAtPercentile(50) / scale));
+            into.put(name + ".p90", format(getValueAtPercentile(90) / scale));
+            into.put(name + ".p99", format(getValueAtPercentile(99) / scale));
+            into.put(name + ".max", format(max / scale));
         }
 
+        static String format(double value) {
+            return String.format(Locale.ROOT, "%.3f", value);
+        }
+    }
+
+    static class Metrics {
         /**
-         * Get the optimal bid based on the estimated utility.
-         *
-         * @param timeBasedUtility
-         *             The utility of the bid based on the time.
-         *
-         * @return The optimal bid.
+         * Hot Path Metrics of a Session
+         * <p>
+         * enabled: Whether anything is measured, every method is a no-op otherwise
+         * threads: Source of the bytes allocated by the current thread, null if the JVM does not count them
+         * chooseAction, receiveMessage, findOptimalBid, update: Latency of each, in nanoseconds
+         * neighbourhood: The number of bids each offer was picked from
+         * chooseActionBytes, receiveMessageBytes: Bytes allocated by the negotiating thread inside each
+         * initNanos: Time init took
          */
-        Bid getOptimalBid(double timeBasedUtility) {
-            double neighbourhoodRadius = Math.max(0.1, 0.1 * (1 - timeBasedUtility));
+        final boolean enabled;
+        final com.sun.management.ThreadMXBean threads;
+        final LatencyHistogram chooseAction = new LatencyHistogram(),
+                receiveMessage = new LatencyHistogram(),
+                findOptimalBid = new LatencyHistogram(),
+                update = new LatencyHistogram(),
+                neighbourhood = new LatencyHistogram();
+        long chooseActionBytes, receiveMessageBytes, initNanos;
+
+        Metrics(boolean enabled) {
+            this.enabled = enabled;
+
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            threads = enabled && bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) bean : null;
+        }
 
-            Range neighbourhood = new Range(Math.max(timeBasedUtility - neighbourhoodRadius, CTX_MIN_UTILITY), Math.min(timeBasedUtility + neighbourhoodRadius, CTX_MAX_UTILITY));
+        long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
 
-            List<Bid> neighbourhoodBids = new ArrayList<>();
+        void stop(LatencyHistogram histogram, long start) {
+            if (enabled)
+                histogram.record(System.nanoTime() - start);
+        }
 
-            for (Bid bid : CTX_ALL_BIDS) {
-                double bidUtility = getUtilityWithDiscount(bid);
-                if(bidUtility >= neighbourhood.getLowerbound() && bidUtility <= neighbourhood.getUpperbound())
-                    neighbourhoodBids.add(bid);
-            }
+        void record(LatencyHistogram histogram, long value) {
+            if (enabled)
+                histogram.record(value);
+        }
 
-            if (neighbourhoodBids.size() == 1) {
-                return neighbourhoodBids.get(0);
-            }
+        long getAllocatedBytes() {
+            return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
 
-            if (neighbourhoodBids.size() == 0) {
-                return CTX_OUTCOME_SPACE.getBidNearUtility(timeBasedUtility).getBid();
+        /**
+         * Get the summary of the session, latencies in microseconds.
+         */
+        HashMap<String, String> toMap() {
+            HashMap<String, String> metrics = new HashMap<>();
+            if (!enabled)
+                return metrics;
+
+            metrics.put("init.us", LatencyHistogram.format(initNanos / 1e3));
+            chooseAction.report("chooseAction.us", metrics, 1e3);
+            receiveMessage.report("receiveMessage.us", metrics, 1e3);
+            findOptimalBid.report("findOptimalBid.us", metrics, 1e3);
+            update.report("update.us", metrics, 1e3);
+            neighbourhood.report("neighbourhood.bids", metrics, 1);
+
+            if (threads != null) {
+                metrics.put("chooseAction.allocated_bytes", Long.toString(chooseActionBytes));
+                metrics.put("receiveMessage.allocated_bytes", Long.toString(receiveMessageBytes));
             }
 
-            Bid optimalBid = null;
-
-//            double maxEstimatedUtility = 0;
-//            for (Bid bid : neighbourhoodBids) {
-//                double estimatedUtility = getEstimatedUtility(bid);
-//                if (estimatedUtility > maxEstimatedUtility) {
-//                    maxEstimatedUtility = estimatedUtility;
-//                    optimalBid = bid;
-//                }
-//            }
+            return metrics;
+        }
 
-            double totalUtility = 0.0;
-            double[] sumOfUtilities = new double[neighbourhoodBids.size()];
-            for (Bid bid : neighbourhoodBids) {
-                sumOfUtilities[neighbourhoodBids.indexOf(bid)] = getEstimatedUtility(bid);
-                totalUtility += sumOfUtilities[neighbourhoodBids.indexOf(bid)];
+        /**
+         * Append the summary as a JSON line, sessions that end at the same time write one after the other.
+         */
+        static void write(String fileName, Map<String, String> metrics) throws IOException {
+            StringBuilder line = new StringBuilder("{");
+            for (Map.Entry<String, String> metric : new TreeMap<>(metrics).entrySet()) {
+                if (line.length() > 1)
+                    line.append(',');
+                line.append('"').append(metric.getKey()).append("\":").append(metric.getValue());
             }
+            line.append("}\n");
 
-            for (int i = 0; i < sumOfUtilities.length; ++i)
-                sumOfUtilities[i] /= totalUtility;
+            synchronized (Metrics.class) {
+                Files.write(Paths.get(fileName), line.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        }
+    }
 
-            double random = Math.random();
-            double sum = 0.0;
-            for (int i = 0; i < sumOfUtilities.length; ++i) {
-                sum += sumOfUtilities[i];
-                if (sum >= random || i == sumOfUtilities.length - 1) {
-                    optimalBid = neighbourhoodBids.get(i);
-                    break;
-                }
+    static class ModelStore {
+        /**
+         * Persistent Opponent Models
+         * <p>
+         * One file per opponent and domain, read through a memory map:
+         * magic (int), domain key (long), sessions (int), bids (long), issues (int),
+         * then for each issue its number (int), its number of ordinals (int) and the count of each ordinal (int)
+         * <p>
+         * directory: The directory the models are kept in
+         * codec: The encoding whose ordinals the counts are stored by
+         * domainKey: Hash of the issues and values of the domain, so models of different domains never mix
+         * decay: The share of the stored evidence that is still counted when a model is loaded
+         * loaded: The decayed counts each file was loaded with, what this session started from
+         * loadedBids: The decayed number of bids each file was loaded with
+         */
+        static final int MAGIC = 0x54464d31;
+        static final int HEADER_SIZE = 4 + 8 + 4 + 8 + 4;
+
+        final Path directory;
+        final BidCodec codec;
+        final long domainKey;
+        final double decay;
+        final Map<Path, int[][]> loaded = new HashMap<>();
+        final Map<Path, Long> loadedBids = new HashMap<>();
+
+        ModelStore(String directory, BidCodec codec, double decay) {
+            this.directory = Paths.get(directory);
+            this.codec = codec;
+            this.decay = decay;
+
+            // Over the issues by number, so the order of our own weights does not matter
+            Integer[] positions = new Integer[codec.width()];
+            for (int i = 0; i < positions.length; ++i)
+                positions[i] = i;
+            Arrays.sort(positions, Comparator.comparingInt(o -> codec.issueNumbers[o]));
+
+            long key = 1125899906842597L;
+            for (int position : positions) {
+                key = 31 * key + codec.issueNumbers[position];
+                for (Value value : codec.values[position])
+                    key = 31 * key + value.toString().hashCode();
             }
+            domainKey = key;
+        }
 
-            return optimalBid;
+        /**
+         * The same opponent gets a new id in every session (Name@3, Name@5, ...), only its name identifies it.
+         */
+        Path getFile(AgentID agent) {
+            String name = agent.getName().replaceAll("@\\d+$", "").replaceAll("[^A-Za-z0-9._-]", "_");
+            return directory.resolve(name + "-" + Long.toHexString(domainKey) + ".tfm");
         }
 
-        void addToBidHistory(Bid bid) {
-            bidHistory.add(bid);
+        /**
+         * Read the stored counts of an opponent, with the decay applied.
+         *
+         * @param agent
+         *            The opponent.
+         *
+         * @return The decayed count of each ordinal per issue (in codec order), or null if nothing is known.
+         */
+        int[][] load(AgentID agent) throws IOException {
+            Path file = getFile(agent);
+            if (!Files.exists(file))
+                return null;
+
+            long[] header = new long[2];
+            int[][] counts = read(file, header);
+            if (counts == null)
+                return null;
+
+            for (int[] issueCounts : counts) {
+                if (issueCounts == null)
+                    continue;
+                for (int j = 0; j < issueCounts.length; ++j)
+                    issueCounts[j] = (int) Math.round(issueCounts[j] * decay);
+            }
+
+            // What this session started from, so saving only adds what it learned on top
+            loaded.put(file, counts);
+            loadedBids.put(file, Math.round(header[1] * decay));
+            return counts;
         }
 
         /**
-         * Get the bid from the bid history with the highest utility for us.
+         * Add what this session learned about an opponent to the stored model, once at the end of the session.
+         * Sessions running at the same time load the same model, so under the lock the evidence stored by other
+         * sessions since this one loaded is kept, decayed as if those sessions had ended before this one.
          *
-         * @return The bid with the highest utility for us.
+         * @param counts
+         *            The count of each ordinal per issue (in codec order), including what was loaded.
+         * @param bids
+         *            The number of bids received, including what was loaded.
          */
-        Bid getBestBid() {
-            Bid bestBid = null;
-            double bestUtility = 0.0;
-            for (Bid bid : bidHistory) {
-                double utility = getUtilityWithDiscount(bid);
-                if (utility > bestUtility) {
-                    bestUtility = utility;
-                    bestBid = bid;
+        void save(AgentID agent, int[][] counts, long bids) throws IOException {
+            Path file = getFile(agent);
+            Files.createDirectories(directory);
+
+            // File locks are held by the whole JVM, so sessions of the same JVM take turns first
+            synchronized (ModelStore.class) {
+                try (FileChannel lockChannel = FileChannel.open(directory.resolve(file.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = lockChannel.lock()) {
+                    long[] header = new long[2];
+                    int[][] stored = Files.exists(file) ? read(file, header) : null;
+                    int[][] start = loaded.get(file);
+
+                    int[][] merged = new int[counts.length][];
+                    for (int i = 0; i < counts.length; ++i) {
+                        merged[i] = counts[i].clone();
+                        for (int j = 0; j < merged[i].length; ++j) {
+                            if (stored != null && stored[i] != null)
+                                merged[i][j] += (int) Math.round(stored[i][j] * decay);
+                            if (start != null && start[i] != null)
+                                merged[i][j] -= start[i][j];
+                            merged[i][j] = Math.max(0, merged[i][j]);
+                        }
+                    }
+                    if (stored != null)
+                        bids += Math.round(header[1] * decay) - loadedBids.getOrDefault(file, 0L);
+
+                    write(file, merged, header[0] + 1, Math.max(0, bids));
                 }
             }
-            return bestBid;
         }
 
         /**
-         * Get the running average of the utility of the bids in the bid history.
+         * Read a stored model as it is stored, without the decay.
          *
-         * @return The bid with utility near the running average.
+         * @param header
+         *            Receives the number of sessions and of bids stored.
+         *
+         * @return The count of each ordinal per issue (in codec order), null for issues that cannot be mapped,
+         *         or null if the file is not a model of this domain or is malformed.
          */
-        Bid getRunningBid() {
-            int n = Math.min(3, bidHistory.size());
-            List<Bid> lastNBids = bidHistory.subList(bidHistory.size() - n, bidHistory.size());
+        int[][] read(Path file, long[] header) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE)
+                    return null;
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC || buffer.getLong() != domainKey)
+                    return null;
+
+                header[0] = buffer.getInt();
+                header[1] = buffer.getLong();
+
+                int[][] counts = new int[codec.width()][];
+                int issues = buffer.getInt();
+                if (issues < 0 || issues > buffer.remaining() / 8)
+                    return null;
+
+                for (int k = 0; k < issues; ++k) {
+                    if (buffer.remaining() < 8)
+                        return null;
+
+                    int issueNumber = buffer.getInt(), size = buffer.getInt();
+                    if (size < 0 || 4L * size > buffer.remaining())
+                        return null;
+
+                    int position = getPosition(issueNumber);
+
+                    // Counts of an issue that is bucketed differently now cannot be mapped
+                    if (position < 0 || size != codec.sizes[position]) {
+                        buffer.position(buffer.position() + 4 * size);
+                        continue;
+                    }
+
+                    counts[position] = new int[size];
+                    for (int j = 0; j < size; ++j)
+                        counts[position][j] = buffer.getInt();
+                }
+                return counts;
+            } catch (BufferUnderflowException e) {
+                return null;
+            }
+        }
 
-            double averageUtility = 0.0;
-            for (Bid bid : lastNBids) {
-                averageUtility += getUtilityWithDiscount(bid);
+        void write(Path file, int[][] counts, long sessions, long bids) throws IOException {
+            int size = HEADER_SIZE;
+            for (int[] issueCounts : counts)
+                size += 8 + 4 * issueCounts.length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.putInt(MAGIC).putLong(domainKey).putInt((int) sessions).putLong(bids).putInt(counts.length);
+            for (int i = 0; i < counts.length; ++i) {
+                buffer.putInt(codec.issueNumbers[i]).putInt(counts[i].length);
+                for (int count : counts[i])
+                    buffer.putInt(count);
             }
-            averageUtility /= n;
+            buffer.flip();
 
-            Bid optimalBid = null;
-            double minDistance = Double.MAX_VALUE;
-            for (Bid bid : lastNBids) {
-                double distance = Math.abs(getUtilityWithDiscount(bid) - averageUtility);
-                if (distance < minDistance) {
+            // Readers do not take the lock, so the file is replaced as a whole
+            Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        int getPosition(int issueNumber) {
+            for (int i = 0; i < codec.issueNumbers.length; ++i)
+                if (codec.issueNumbers[i] == issueNumber)
+                    return i;
+            return -1;
+        }
+    }
+
+    class UtilityService {
+        /**
+         * Our Utility of Bids
+         * <p>
+         * issueUtilities: The weighted evaluation of each value ordinal, per issue (in codec order),
+         *                 bucketed issues are evaluated at the value the codec decodes a bucket to
+         * discount: The discount multiplier of the current round
+         * discountRound: The round the discount multiplier was computed for (our turn on a continuous timeline)
+         */
+        final double[][] issueUtilities;
+        double discount;
+        int discountRound = -1;
+
+        UtilityService(AdditiveUtilitySpace additiveUtilitySpace, BidCodec codec) {
+            // Evaluators only evaluate whole bids, so each value is put into the same template bid
+            Bid template = codec.decode(new int[codec.width()], 0);
+
+            issueUtilities = new double[codec.width()][];
+            for (int i = 0; i < codec.width(); ++i) {
+                double weight = additiveUtilitySpace.getWeight(codec.issueNumbers[i]);
+                Evaluator evaluator = additiveUtilitySpace.getEvaluator(codec.issueNumbers[i]);
+
+                issueUtilities[i] = new double[codec.sizes[i]];
+                for (int j = 0; j < codec.sizes[i]; ++j)
+                    issueUtilities[i][j] = weight * evaluator.getEvaluation(additiveUtilitySpace, template.putValue(codec.issueNumbers[i], codec.values[i][j]), codec.issueNumbers[i]);
+            }
+        }
+
+        /**
+         * Get our undiscounted utility of a bid.
+         *
+         * @param bid
+         *             The bid to evaluate.
+         *
+         * @return The utility, summed from the tabulated value evaluations unless issues are bucketed.
+         */
+        double getUtility(Bid bid) {
+            // The tables only hold the value each bucket decodes to, not every value of the bucket
+            if (!CTX_CODEC.exact)
+                return utilitySpace.getUtility(bid);
+
+            double utility = 0;
+            for (int i = 0; i < issueUtilities.length; ++i)
+                utility += issueUtilities[i][CTX_CODEC.getOrdinal(i, bid.getValue(CTX_CODEC.issueNumbers[i]))];
+            return utility;
+        }
+
+        double getUtilityWithDiscount(Bid bid) {
+            return getUtility(bid) * getDiscount();
+        }
+
+        /**
+         * Get the factor by which undiscounted utilities are scaled in the current round,
+         * it is only recomputed once the round changes.
+         *
+         * @return The discount multiplier, 1 if the domain is not discounted.
+         */
+        double getDiscount() {
+            int round = getRound();
+
+            if (round != discountRound) {
+                discountRound = round;
+                discount = CTX_DISCOUNT_FACTOR <= 0 || CTX_DISCOUNT_FACTOR >= 1 ? 1 : Math.pow(CTX_DISCOUNT_FACTOR, CTX_TIMELINE.getTime());
+            }
+
+            return discount;
+        }
+    }
+
+    static class SearchBudget {
+        /**
+         * Time Budget of the Bid Search (anytime: a search that runs out of time keeps what it found)
+         * <p>
+         * limited: Whether searches are limited at all, only on real-time (continuous) timelines
+         * share: The most of the time between our turns a search may take
+         * headroom: How much more time than the recent complete searches took a search gets
+         * minimum: The budget a search always gets, in nanoseconds
+         * budget: The budget of the next search, adapted to the measured search times
+         * cap: The most the current search may take
+         * turnNanos: Smoothed time between the starts of our turns, 0 until two turns were seen
+         * turnStart, searchStart: When the current turn and search started (System.nanoTime)
+         * deadline: When the current search has to stop
+         * cut: Whether the current search ran out of time, it is then incomplete
+         */
+        final boolean limited;
+        final double share, headroom;
+        final long minimum;
+        long budget, cap, turnNanos, turnStart, searchStart, deadline;
+        volatile boolean cut;
+
+        SearchBudget(boolean limited, double share, double headroom, long minimum) {
+            this.limited = limited;
+            this.share = share;
+            this.headroom = headroom;
+            this.minimum = minimum;
+            budget = Long.MAX_VALUE;
+        }
+
+        /**
+         * Start our turn.
+         *
+         * @param remainingNanos
+         *             The time left in the negotiation.
+         */
+        void startTurn(long remainingNanos) {
+            long now = System.nanoTime();
+            if (turnStart != 0)
+                turnNanos = turnNanos == 0 ? now - turnStart : (turnNanos + now - turnStart) / 2;
+            turnStart = now;
+
+            // Until the pace of the negotiation is known, assume at least a hundred more turns
+            cap = (long) (share * Math.min(remainingNanos, turnNanos > 0 ? turnNanos : remainingNanos / 100));
+            cap = Math.max(cap, minimum);
+        }
+
+        /**
+         * Whether there is no time for another turn after this one.
+         */
+        boolean isLastTurn(long remainingNanos) {
+            return limited && turnNanos > 0 && remainingNanos < 2 * turnNanos;
+        }
+
+        void startSearch() {
+            startSearch(Math.min(budget, cap));
+        }
+
+        void startSearch(long budgetNanos) {
+            cut = false;
+            searchStart = System.nanoTime();
+            deadline = searchStart + budgetNanos;
+        }
+
+        /**
+         * Adapt the budget: a complete search leaves the budget near the time it took, with some
+         * headroom, a search that ran out of time doubles it, up to the cap of the next turn.
+         */
+        void stopSearch() {
+            if (!limited)
+                return;
+
+            long elapsed = System.nanoTime() - searchStart;
+            if (cut)
+                budget = Math.min(budget, cap) * 2;
+            else
+                budget = Math.max(minimum, (Math.min(budget, cap) + (long) (headroom * elapsed)) / 2);
+        }
+
+        /**
+         * Check the clock, once it passed the deadline the search is cut.
+         */
+        boolean isExpired() {
+            if (limited && !cut && System.nanoTime() - deadline >= 0)
+                cut = true;
+            return cut;
+        }
+    }
+
+    /**
+     * Queries over the outcome space that the agent needs, in (undiscounted) utility order.
+     * Iterating an index yields its bids from the highest to the lowest utility.
+     */
+    interface OutcomeIndex extends Iterable<Bid> {
+        Bid getBestBid();
+
+        double getMinUtility();
+
+        double getMaxUtility();
+
+        /**
+         * Get the bid whose utility is closest to the given utility.
+         *
+         * @param utility
+         *             The (undiscounted) utility to search for.
+         *
+         * @return The bid nearest to the utility.
+         */
+        Bid getBidNearUtility(double utility);
+
+        /**
+         * Collect all bids whose utility lies within the range (bounds inclusive). Once the search
+         * budget runs out, only the bids found so far are collected.
+         *
+         * @param range
+         *             The (undiscounted) utility range.
+         * @param candidates
+         *             The buffer the encoded bids are written to, it is cleared first.
+         */
+        void getBidsInRange(Range range, Candidates candidates);
+
+        /**
+         * Whether the last getBidsInRange returned every bid of its range, so the range never has to be queried again.
+         */
+        default boolean isExhaustive() {
+            return true;
+        }
+
+        /**
+         * Whether getBidsInRange collects the bids by descending utility, so a query that ran out of
+         * time has still collected every bid above the last one it collected.
+         */
+        default boolean isDescending() {
+            return false;
+        }
+    }
+
+    static class SortedOutcomeIndex implements OutcomeIndex {
+        /**
+         * Utility Index of the Outcome Space
+         * <p>
+         * codec: The encoding of the stored bids
+         * store: All possible bids in encoded form, sorted by descending undiscounted utility
+         * utilities: The undiscounted utility of each bid (parallel to store)
+         * budget: The time budget of the search the index is queried for
+         */
+        final BidCodec codec;
+        final OutcomeStore store;
+        final double[] utilities;
+        final SearchBudget budget;
+
+        SortedOutcomeIndex(List<BidDetails> sortedOutcomes, BidCodec codec, SearchBudget budget) {
+            this.codec = codec;
+            this.budget = budget;
+            store = codec.newStore(sortedOutcomes.size());
+            utilities = new double[sortedOutcomes.size()];
+
+            int[] ordinals = new int[codec.width()];
+            for (int i = 0; i < utilities.length; ++i) {
+                codec.encode(sortedOutcomes.get(i).getBid(), ordinals, 0);
+                store.set(i, ordinals, 0);
+                utilities[i] = sortedOutcomes.get(i).getMyUndiscountedUtil();
+            }
+        }
+
+        /**
+         * Build the index from the tabulated utilities, in parallel: the utilities are computed
+         * in blocks, one per value of the first issue, and an index permutation is merge sorted
+         * by descending utility. The best bid and the utility bounds are the ends of the index.
+         *
+         * @param codec
+         *             The encoding of the bids, over discrete issues only.
+         * @param issueUtilities
+         *             The weighted evaluation of each value ordinal, per issue.
+         * @param budget
+         *             The time budget of the construction.
+         * @param threshold
+         *             The number of bids below which a block is not split any further.
+         *
+         * @return The index, or null if the budget ran out before it was complete.
+         */
+        static SortedOutcomeIndex build(BidCodec codec, double[][] issueUtilities, SearchBudget budget, int threshold) {
+            int size = 1;
+            for (int issueSize : codec.sizes)
+                size *= issueSize;
+
+            double[] utilities = new double[size];
+            new OutcomeScoring(codec.sizes, issueUtilities, utilities, budget, threshold, 0, size).invoke();
+            if (budget.cut)
+                return null;
+
+            int[] order = new int[size];
+            for (int i = 0; i < size; ++i)
+                order[i] = i;
+            new PermutationSort(utilities, order, new int[size], budget, threshold, 0, size).invoke();
+            if (budget.cut)
+                return null;
+
+            return new SortedOutcomeIndex(codec, utilities, order, budget);
+        }
+
+        /**
+         * @param utilities
+         *             The utility of every bid, by its position in the cartesian product (last issue fastest).
+         * @param order
+         *             The positions of the bids by descending utility.
+         */
+        SortedOutcomeIndex(BidCodec codec, double[] utilities, int[] order, SearchBudget budget) {
+            this.codec = codec;
+            this.budget = budget;
+            store = codec.newStore(order.length);
+            this.utilities = new double[order.length];
+
+            int[] ordinals = new int[codec.width()];
+            for (int i = 0; i < order.length; ++i) {
+                for (int j = codec.width() - 1, position = order[i]; j >= 0; --j) {
+                    ordinals[j] = position % codec.sizes[j];
+                    position /= codec.sizes[j];
+                }
+                store.set(i, ordinals, 0);
+                this.utilities[i] = utilities[order[i]];
+            }
+        }
+
+        Bid getBid(int index) {
+            int[] ordinals = new int[codec.width()];
+            store.get(index, ordinals, 0);
+            return codec.decode(ordinals, 0);
+        }
+
+        @Override
+        public Bid getBestBid() {
+            return getBid(0);
+        }
+
+        @Override
+        public double getMaxUtility() {
+            return utilities[0];
+        }
+
+        @Override
+        public double getMinUtility() {
+            return utilities[utilities.length - 1];
+        }
+
+        @Override
+        public Iterator<Bid> iterator() {
+            return new Iterator<Bid>() {
+                int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < utilities.length;
+                }
+
+                @Override
+                public Bid next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return getBid(index++);
+                }
+            };
+        }
+
+        /**
+         * Get the position of the first bid whose utility is at most the given utility.
+         *
+         * @param utility
+         *             The (undiscounted) utility to search for.
+         *
+         * @return The position of the bid, or the number of bids if there is none.
+         */
+        int indexAtOrBelow(double utility) {
+            int low = 0, high = utilities.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (utilities[mid] > utility) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * Get the position of the first bid whose utility is strictly below the given utility.
+         *
+         * @param utility
+         *             The (undiscounted) utility to search for.
+         *
+         * @return The position of the bid, or the number of bids if there is none.
+         */
+        int indexBelow(double utility) {
+            int low = 0, high = utilities.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (utilities[mid] >= utility) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        @Override
+        public boolean isDescending() {
+            return true;
+        }
+
+        /**
+         * The bids inside the range form a contiguous slice of the store, which is decoded
+         * sequentially into the buffer (by descending utility).
+         */
+        @Override
+        public void getBidsInRange(Range range, Candidates candidates) {
+            candidates.clear();
+
+            int from = indexAtOrBelow(range.getUpperbound());
+            int to = indexBelow(range.getLowerbound());
+
+            for (int i = from; i < to; ++i) {
+                if (((i - from) & 1023) == 1023 && budget.isExpired())
+                    break;
+
+                int offset = candidates.append(utilities[i]);
+                store.get(i, candidates.ordinals, offset);
+            }
+        }
+
+        @Override
+        public Bid getBidNearUtility(double utility) {
+            int index = indexAtOrBelow(utility);
+            if (index == utilities.length)
+                return getBid(index - 1);
+            if (index > 0 && utilities[index - 1] - utility < utility - utilities[index])
+                return getBid(index - 1);
+            return getBid(index);
+        }
+    }
+
+    static class OutcomeScoring extends RecursiveAction {
+        /**
+         * Utilities of a slice of the cartesian product of the issues (last issue fastest)
+         * <p>
+         * sizes: The number of values of each issue
+         * issueUtilities: The weighted evaluation of each value ordinal, per issue
+         * utilities: The utility of every bid, each task writes its own slice only
+         * budget: The time budget of the construction, the tasks stop once it runs out
+         * threshold: Number of bids below which a slice is not split any further
+         * from, to: The slice of bids computed by this task
+         **/
+        final int[] sizes;
+        final double[][] issueUtilities;
+        final double[] utilities;
+        final SearchBudget budget;
+        final int threshold, from, to;
+
+        OutcomeScoring(int[] sizes, double[][] issueUtilities, double[] utilities, SearchBudget budget, int threshold, int from, int to) {
+            this.sizes = sizes;
+            this.issueUtilities = issueUtilities;
+            this.utilities = utilities;
+            this.budget = budget;
+            this.threshold = threshold;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                score();
+                return;
+            }
+
+            // The whole product is split by the values of the first issue, the blocks in halves
+            if (from == 0 && to == utilities.length && sizes[0] > 1) {
+                int block = to / sizes[0];
+                List<OutcomeScoring> blocks = new ArrayList<>();
+                for (int i = 0; i < sizes[0]; ++i)
+                    blocks.add(new OutcomeScoring(sizes, issueUtilities, utilities, budget, threshold, i * block, (i + 1) * block));
+                invokeAll(blocks);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new OutcomeScoring(sizes, issueUtilities, utilities, budget, threshold, from, middle),
+                    new OutcomeScoring(sizes, issueUtilities, utilities, budget, threshold, middle, to));
+        }
+
+        void score() {
+            int width = sizes.length;
+            int[] ordinals = new int[width];
+            for (int j = width - 1, position = from; j >= 0; --j) {
+                ordinals[j] = position % sizes[j];
+                position /= sizes[j];
+            }
+
+            for (int i = from; i < to; ++i) {
+                if (((i - from) & 1023) == 1023 && budget.isExpired())
+                    return;
+
+                // Summed in issue order like UtilityService.getUtility, so both agree exactly
+                double utility = 0;
+                for (int j = 0; j < width; ++j)
+                    utility += issueUtilities[j][ordinals[j]];
+                utilities[i] = utility;
+
+                for (int j = width - 1; j >= 0 && ++ordinals[j] == sizes[j]; --j)
+                    ordinals[j] = 0;
+            }
+        }
+    }
+
+    static class PermutationSort extends RecursiveAction {
+        /**
+         * Merge sort of a slice of bid positions by descending utility, ties by ascending position
+         * <p>
+         * utilities: The utility of every bid, by position
+         * order, buffer: The positions being sorted and the scratch space of the merges
+         * budget: The time budget of the construction, the tasks stop once it runs out
+         * threshold: Number of positions below which the halves are not sorted in parallel
+         * from, to: The slice of positions sorted by this task
+         **/
+        final double[] utilities;
+        final int[] order, buffer;
+        final SearchBudget budget;
+        final int threshold, from, to;
+
+        PermutationSort(double[] utilities, int[] order, int[] buffer, SearchBudget budget, int threshold, int from, int to) {
+            this.utilities = utilities;
+            this.order = order;
+            this.buffer = buffer;
+            this.budget = budget;
+            this.threshold = threshold;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (budget.cut)
+                return;
+
+            if (to - from <= 32) {
+                for (int k = from + 1; k < to; ++k) {
+                    int i = order[k], j = k - 1;
+                    for (; j >= from && isBefore(i, order[j]); --j)
+                        order[j + 1] = order[j];
+                    order[j + 1] = i;
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            PermutationSort left = new PermutationSort(utilities, order, buffer, budget, threshold, from, middle),
+                    right = new PermutationSort(utilities, order, buffer, budget, threshold, middle, to);
+            if (to - from <= threshold) {
+                left.compute();
+                right.compute();
+            } else {
+                invokeAll(left, right);
+            }
+
+            if (to - from > threshold && budget.isExpired())
+                return;
+
+            int i = from, j = middle, k = from;
+            while (i < middle && j < to)
+                buffer[k++] = isBefore(order[j], order[i]) ? order[j++] : order[i++];
+            System.arraycopy(order, i, buffer, k, middle - i);
+            System.arraycopy(order, j, buffer, k + middle - i, to - j);
+            System.arraycopy(buffer, from, order, from, to - from);
+        }
+
+        boolean isBefore(int i, int j) {
+            return utilities[i] > utilities[j] || utilities[i] == utilities[j] && i < j;
+        }
+    }
+
+    static class LazyOutcomeIndex implements OutcomeIndex {
+        /**
+         * Lazily explored Outcome Space (additive domains, over the ordinals of the codec)
+         * <p>
+         * codec: The encoding of the generated bids
+         * ordinals: The value ordinals of each issue, ordered by descending contribution to our utility
+         * contributions: The weighted evaluation of each value (parallel to ordinals)
+         * maxRemaining: Highest utility the issues from a position onwards can still add
+         * minRemaining: Lowest utility the issues from a position onwards can still add
+         * budget: The time budget of the search the index is queried for
+         * random: The source of the random descents that sample ranges with too many bids
+         * limit: The most bids a query collects, a query takes at most 64 times as many search steps
+         * steps: The number of search steps taken by the current query, the clock is checked every 1024 of them
+         * complete: Whether the last query collected every bid of its range
+         * feasible: Reusable list of the values a random descent can choose from
+         */
+        final BidCodec codec;
+        final int[][] ordinals;
+        final double[][] contributions;
+        final double[] maxRemaining, minRemaining;
+        final SearchBudget budget;
+        final SplittableRandom random;
+        final int limit;
+        long steps;
+        boolean complete;
+        int[] feasible;
+
+        LazyOutcomeIndex(BidCodec codec, double[][] issueUtilities, SearchBudget budget, SplittableRandom random, int limit) {
+            int width = codec.width();
+
+            this.codec = codec;
+            this.budget = budget;
+            this.random = random;
+            this.limit = limit;
+            ordinals = new int[width][];
+            contributions = new double[width][];
+            maxRemaining = new double[width + 1];
+            minRemaining = new double[width + 1];
+
+            for (int i = 0; i < width; ++i) {
+                double[] issueContributions = issueUtilities[i];
+                List<Integer> issueOrdinals = new ArrayList<>();
+                for (int j = 0; j < codec.sizes[i]; ++j)
+                    issueOrdinals.add(j);
+                issueOrdinals.sort(Comparator.comparingDouble(o -> -1 * issueContributions[o]));
+
+                ordinals[i] = new int[codec.sizes[i]];
+                contributions[i] = new double[codec.sizes[i]];
+                for (int j = 0; j < codec.sizes[i]; ++j) {
+                    ordinals[i][j] = issueOrdinals.get(j);
+                    contributions[i][j] = issueContributions[ordinals[i][j]];
+                }
+            }
+
+            int maxSize = 1;
+            for (int i = width - 1; i >= 0; --i) {
+                maxRemaining[i] = maxRemaining[i + 1] + contributions[i][0];
+                minRemaining[i] = minRemaining[i + 1] + contributions[i][contributions[i].length - 1];
+                maxSize = Math.max(maxSize, codec.sizes[i]);
+            }
+            feasible = new int[maxSize];
+        }
+
+        /**
+         * Whether the current query took all the steps it may, or ran out of time.
+         */
+        boolean isStopped() {
+            return ++steps > 64L * limit || (steps & 1023) == 0 && budget.isExpired() || budget.cut;
+        }
+
+        /**
+         * Build the bid that picks the value of the given rank for every issue.
+         *
+         * @param ranks
+         *             The rank of the chosen value for each issue (0 is our favourite).
+         *
+         * @return The corresponding bid.
+         */
+        Bid toBid(int[] ranks) {
+            int[] bidOrdinals = new int[ranks.length];
+            for (int i = 0; i < ranks.length; ++i)
+                bidOrdinals[i] = ordinals[i][ranks[i]];
+            return codec.decode(bidOrdinals, 0);
+        }
+
+        @Override
+        public Bid getBestBid() {
+            return toBid(new int[ordinals.length]);
+        }
+
+        @Override
+        public double getMaxUtility() {
+            return maxRemaining[0];
+        }
+
+        @Override
+        public double getMinUtility() {
+            return minRemaining[0];
+        }
+
+        /**
+         * A greedy pass finds a close bid first, which the branch and bound search then improves
+         * on for as many steps as a query may take.
+         */
+        @Override
+        public Bid getBidNearUtility(double utility) {
+            int[] ranks = new int[ordinals.length];
+            int[] nearestRanks = new int[ordinals.length];
+
+            // Every issue takes the value that keeps the middle of what the later issues can add closest to the target
+            double partialUtility = 0;
+            for (int i = 0; i < ordinals.length; ++i) {
+                double rest = partialUtility + (minRemaining[i + 1] + maxRemaining[i + 1]) / 2;
+                for (int j = 1; j < contributions[i].length; ++j) {
+                    if (Math.abs(rest + contributions[i][j] - utility) < Math.abs(rest + contributions[i][nearestRanks[i]] - utility))
+                        nearestRanks[i] = j;
+                }
+                partialUtility += contributions[i][nearestRanks[i]];
+            }
+
+            double[] nearestDistance = {Math.abs(partialUtility - utility)};
+            steps = 0;
+            searchNear(0, 0, utility, ranks, nearestRanks, nearestDistance);
+            return toBid(nearestRanks);
+        }
+
+        /**
+         * Branch and bound search for the bid closest to the target utility, until the query is stopped.
+         */
+        void searchNear(int issue, double partialUtility, double utility, int[] ranks, int[] nearestRanks, double[] nearestDistance) {
+            if (issue == ranks.length) {
+                double distance = Math.abs(partialUtility - utility);
+                if (distance < nearestDistance[0]) {
+                    nearestDistance[0] = distance;
+                    System.arraycopy(ranks, 0, nearestRanks, 0, ranks.length);
+                }
+                return;
+            }
+
+            for (int j = 0; j < contributions[issue].length && nearestDistance[0] > 0; ++j) {
+                if (isStopped())
+                    return;
+
+                double low = partialUtility + contributions[issue][j] + minRemaining[issue + 1];
+                double high = partialUtility + contributions[issue][j] + maxRemaining[issue + 1];
+
+                // Values are ordered by contribution, so once we fall short we can only get further away
+                if (high < utility - nearestDistance[0])
+                    break;
+                if (low > utility + nearestDistance[0])
+                    continue;
+
+                ranks[issue] = j;
+                searchNear(issue + 1, partialUtility + contributions[issue][j], utility, ranks, nearestRanks, nearestDistance);
+            }
+        }
+
+        @Override
+        public boolean isExhaustive() {
+            return complete;
+        }
+
+        /**
+         * The bids are written to the buffer in search order, not by utility. A range with more
+         * than limit bids is sampled instead, so a query never takes more than limit bids of
+         * memory and 64 * limit steps, whatever the timeline.
+         */
+        @Override
+        public void getBidsInRange(Range range, Candidates candidates) {
+            candidates.clear();
+            steps = 0;
+            int[] ranks = new int[ordinals.length];
+            complete = collectInRange(0, 0, range, ranks, candidates);
+
+            // The enumeration fills the buffer from our favourite values down, random descents spread the bids over the whole range
+            if (!complete && !budget.cut) {
+                candidates.clear();
+                steps = 0;
+                while (candidates.size < limit && !isStopped())
+                    descend(range, ranks, candidates);
+            }
+        }
+
+        /**
+         * Enumerate only the part of the cartesian product that can still end up inside the range.
+         *
+         * @return Whether every bid of the range was collected.
+         */
+        boolean collectInRange(int issue, double partialUtility, Range range, int[] ranks, Candidates candidates) {
+            if (issue == ranks.length) {
+                int offset = candidates.append(partialUtility);
+                for (int i = 0; i < ranks.length; ++i)
+                    candidates.ordinals[offset + i] = ordinals[i][ranks[i]];
+                return candidates.size < limit;
+            }
+
+            for (int j = 0; j < contributions[issue].length; ++j) {
+                if (isStopped())
+                    return false;
+
+                double next = partialUtility + contributions[issue][j];
+
+                if (next + maxRemaining[issue + 1] < range.getLowerbound())
+                    break;
+                if (next + minRemaining[issue + 1] > range.getUpperbound())
+                    continue;
+
+                ranks[issue] = j;
+                if (!collectInRange(issue + 1, next, range, ranks, candidates))
+                    return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Pick a random value for every issue among those that can still end up inside the range,
+         * and collect the bid if it does. The same bid may be collected more than once.
+         */
+        void descend(Range range, int[] ranks, Candidates candidates) {
+            double partialUtility = 0;
+            for (int issue = 0; issue < ranks.length; ++issue) {
+                int count = 0;
+                for (int j = 0; j < contributions[issue].length; ++j) {
+                    double next = partialUtility + contributions[issue][j];
+                    if (next + maxRemaining[issue + 1] >= range.getLowerbound() && next + minRemaining[issue + 1] <= range.getUpperbound())
+                        feasible[count++] = j;
+                }
+
+                if (count == 0)
+                    return;
+
+                ranks[issue] = feasible[random.nextInt(count)];
+                partialUtility += contributions[issue][ranks[issue]];
+            }
+
+            int offset = candidates.append(partialUtility);
+            for (int i = 0; i < ranks.length; ++i)
+                candidates.ordinals[offset + i] = ordinals[i][ranks[i]];
+        }
+
+        /**
+         * Best-first enumeration of the outcome space. Every rank vector is reached exactly once by
+         * only ever demoting issues at or after the last demoted one, and demoting an issue never
+         * increases the utility, so the queue always holds the next best bid at its head.
+         */
+        @Override
+        public Iterator<Bid> iterator() {
+            PriorityQueue<RankedBid> frontier = new PriorityQueue<>(Comparator.comparingDouble(o -> -1 * o.utility));
+            frontier.add(new RankedBid(new int[ordinals.length], 0, maxRemaining[0]));
+
+            return new Iterator<Bid>() {
+                @Override
+                public boolean hasNext() {
+                    return !frontier.isEmpty();
+                }
+
+                @Override
+                public Bid next() {
+                    RankedBid current = frontier.poll();
+                    if (current == null)
+                        throw new NoSuchElementException();
+
+                    for (int i = current.lastDemoted; i < current.ranks.length; ++i) {
+                        int rank = current.ranks[i];
+                        if (rank + 1 == contributions[i].length)
+                            continue;
+
+                        int[] ranks = current.ranks.clone();
+                        ranks[i] = rank + 1;
+                        frontier.add(new RankedBid(ranks, i, current.utility - contributions[i][rank] + contributions[i][rank + 1]));
+                    }
+
+                    return toBid(current.ranks);
+                }
+            };
+        }
+
+        static class RankedBid {
+            final int[] ranks;
+            final int lastDemoted;
+            final double utility;
+
+            RankedBid(int[] ranks, int lastDemoted, double utility) {
+                this.ranks = ranks;
+                this.lastDemoted = lastDemoted;
+                this.utility = utility;
+            }
+        }
+    }
+
+    static class SampledOutcomeIndex extends LazyOutcomeIndex {
+        /**
+         * Sampled Outcome Space (domains with bucketed integer or real issues)
+         * <p>
+         * issueUtilities: The weighted evaluation of each value ordinal, per issue
+         * samples: The number of local searches per query (starting from a random bid), which bounds its cost
+         */
+        final double[][] issueUtilities;
+        final int samples;
+
+        SampledOutcomeIndex(BidCodec codec, double[][] issueUtilities, SearchBudget budget, SplittableRandom random, int samples, int limit) {
+            super(codec, issueUtilities, budget, random, limit);
+            this.issueUtilities = issueUtilities;
+            this.samples = samples;
+        }
+
+        @Override
+        public boolean isExhaustive() {
+            return false;
+        }
+
+        /**
+         * Instead of enumerating the range, every local search starts at a random bid and moves
+         * one issue at a time to the value that brings it closest to the middle of the range. A
+         * query costs at most samples * width moves over all ordinals, whatever the size of the
+         * outcome space; the same bid may be found more than once.
+         */
+        @Override
+        public void getBidsInRange(Range range, Candidates candidates) {
+            candidates.clear();
+
+            int width = codec.width();
+            double target = (range.getLowerbound() + range.getUpperbound()) / 2;
+            int[] bid = new int[width];
+
+            for (int sample = 0; sample < samples && !budget.isExpired(); ++sample) {
+                double utility = 0;
+                for (int i = 0; i < width; ++i) {
+                    bid[i] = random.nextInt(codec.sizes[i]);
+                    utility += issueUtilities[i][bid[i]];
+                }
+
+                for (int move = 0; move < width && (utility < range.getLowerbound() || utility > range.getUpperbound()); ++move) {
+                    int bestIssue = -1, bestOrdinal = -1;
+                    double bestUtility = utility;
+                    for (int i = 0; i < width; ++i) {
+                        for (int j = 0; j < codec.sizes[i]; ++j) {
+                            double next = utility - issueUtilities[i][bid[i]] + issueUtilities[i][j];
+                            if (Math.abs(next - target) < Math.abs(bestUtility - target)) {
+                                bestIssue = i;
+                                bestOrdinal = j;
+                                bestUtility = next;
+                            }
+                        }
+                    }
+
+                    if (bestIssue < 0)
+                        break;
+
+                    bid[bestIssue] = bestOrdinal;
+                    utility = bestUtility;
+                }
+
+                if (utility >= range.getLowerbound() && utility <= range.getUpperbound()) {
+                    int offset = candidates.append(utility);
+                    System.arraycopy(bid, 0, candidates.ordinals, offset, width);
+                }
+            }
+        }
+    }
+
+    static class BidCodec {
+        /**
+         * Ordinal Encoding of Bids
+         * <p>
+         * domain: The domain the bids belong to
+         * issueNumbers: The issue number at each position (the order of CTX_ISSUES)
+         * values: The value each ordinal decodes to, per issue (the middle of the bucket for bucketed issues)
+         * origins: The value at the start of ordinal 0 of each integer or real issue
+         * steps: The width of an ordinal of each integer or real issue (1 for unbucketed integers, 0 for discrete issues)
+         * spans: The number of integers in the range of each integer issue (0 for discrete and real issues)
+         * sizes: The number of ordinals of each issue
+         * ordinals: Lookup from a discrete value to its ordinal, for each issue
+         * shifts: The bit offset of each issue inside a packed bid
+         * packable: Whether a whole bid fits inside a single long
+         * exact: Whether every value has an ordinal of its own, i.e. no issue is bucketed
+         */
+        final Domain domain;
+        final int[] issueNumbers, sizes, shifts;
+        final long[] spans;
+        final double[] origins, steps;
+        final Value[][] values;
+        final List<Map<Value, Integer>> ordinals = new ArrayList<>();
+        final boolean packable, exact;
+
+        /**
+         * @param buckets
+         *            The maximum number of ordinals of an integer or real issue. Integer ranges up to
+         *            that size keep an ordinal per value, wider integer ranges and real ranges are
+         *            split into that many buckets of equal width. The buckets are fixed for the
+         *            session: the outcome index, the utility tables, the frequency tables and the
+         *            stored models all count by these ordinals, so they do not follow the offers.
+         */
+        BidCodec(Domain domain, List<Issue> issues, int buckets) {
+            this.domain = domain;
+            issueNumbers = new int[issues.size()];
+            sizes = new int[issues.size()];
+            shifts = new int[issues.size()];
+            origins = new double[issues.size()];
+            steps = new double[issues.size()];
+            spans = new long[issues.size()];
+            values = new Value[issues.size()][];
+
+            int bits = 0;
+            boolean bucketed = false;
+            for (int i = 0; i < issues.size(); ++i) {
+                Issue issue = issues.get(i);
+                Map<Value, Integer> issueOrdinals = new HashMap<>();
+
+                issueNumbers[i] = issue.getNumber();
+
+                if (issue instanceof IssueDiscrete) {
+                    values[i] = ((IssueDiscrete) issue).getValues().toArray(new Value[0]);
+                    sizes[i] = values[i].length;
+                    for (int j = 0; j < values[i].length; ++j)
+                        issueOrdinals.put(values[i][j], j);
+                } else if (issue instanceof IssueInteger) {
+                    int lowerBound = ((IssueInteger) issue).getLowerBound(), upperBound = ((IssueInteger) issue).getUpperBound();
+                    spans[i] = (long) upperBound - lowerBound + 1;
+                    sizes[i] = (int) Math.min(spans[i], buckets);
+                    origins[i] = lowerBound;
+                    steps[i] = (double) spans[i] / sizes[i];
+                    bucketed |= spans[i] != sizes[i];
+
+                    // Bucket j holds the integers from ceil(j * span / size) on, it decodes to the middle one
+                    values[i] = new Value[sizes[i]];
+                    for (int j = 0; j < sizes[i]; ++j) {
+                        long first = getBucketStart(i, j), last = getBucketStart(i, j + 1) - 1;
+                        values[i][j] = new ValueInteger((int) (lowerBound + (first + last) / 2));
+                    }
+                } else if (issue instanceof IssueReal) {
+                    double lowerBound = ((IssueReal) issue).getLowerBound(), upperBound = ((IssueReal) issue).getUpperBound();
+                    sizes[i] = upperBound > lowerBound ? buckets : 1;
+                    origins[i] = lowerBound;
+                    steps[i] = upperBound > lowerBound ? (upperBound - lowerBound) / buckets : 1;
+                    bucketed = true;
+
+                    values[i] = new Value[sizes[i]];
+                    for (int j = 0; j < sizes[i]; ++j)
+                        values[i][j] = new ValueReal(Math.min(upperBound, origins[i] + (j + 0.5) * steps[i]));
+                } else {
+                    throw new IllegalArgumentException("Issue " + issue.getName() + " is neither discrete, integer nor real");
+                }
+
+                ordinals.add(issueOrdinals);
+
+                shifts[i] = bits;
+                bits += 32 - Integer.numberOfLeadingZeros(Math.max(1, sizes[i] - 1));
+            }
+
+            packable = bits <= 64;
+            exact = !bucketed;
+        }
+
+        int width() {
+            return issueNumbers.length;
+        }
+
+        int getOrdinal(int position, Value value) {
+            if (steps[position] == 0)
+                return ordinals.get(position).get(value);
+
+            // In integers, so every value falls into the bucket it is decoded from
+            if (spans[position] > 0) {
+                long offset = Math.max(0, Math.min(spans[position] - 1, ((ValueInteger) value).getValue() - (long) origins[position]));
+                return (int) (offset * sizes[position] / spans[position]);
+            }
+
+            int ordinal = (int) Math.floor((((ValueReal) value).getValue() - origins[position]) / steps[position]);
+            return Math.max(0, Math.min(sizes[position] - 1, ordinal));
+        }
+
+        /**
+         * Get the offset from the lower bound of the first integer in a bucket of an integer issue.
+         */
+        long getBucketStart(int position, int ordinal) {
+            return (ordinal * spans[position] + sizes[position] - 1) / sizes[position];
+        }
+
+        Value getValue(int position, int ordinal) {
+            return values[position][ordinal];
+        }
+
+        void encode(Bid bid, int[] into, int offset) {
+            for (int i = 0; i < issueNumbers.length; ++i)
+                into[offset + i] = getOrdinal(i, bid.getValue(issueNumbers[i]));
+        }
+
+        /**
+         * Build a real bid from its encoded form, this should only happen for bids we are about to use.
+         */
+        Bid decode(int[] from, int offset) {
+            HashMap<Integer, Value> bidValues = new HashMap<>();
+            for (int i = 0; i < issueNumbers.length; ++i)
+                bidValues.put(issueNumbers[i], getValue(i, from[offset + i]));
+            return new Bid(domain, bidValues);
+        }
+
+        long pack(int[] from, int offset) {
+            long code = 0;
+            for (int i = 0; i < issueNumbers.length; ++i)
+                code |= (long) from[offset + i] << shifts[i];
+            return code;
+        }
+
+        void unpack(long code, int[] into, int offset) {
+            for (int i = 0; i < issueNumbers.length; ++i) {
+                int bits = (i + 1 < shifts.length ? shifts[i + 1] : 64) - shifts[i];
+                into[offset + i] = (int) ((code >>> shifts[i]) & (bits == 64 ? -1L : (1L << bits) - 1));
+            }
+        }
+
+        /**
+         * Get storage for the given number of encoded bids: one long per bid when a bid can be
+         * packed, a column per issue otherwise.
+         */
+        OutcomeStore newStore(int size) {
+            if (packable)
+                return new PackedOutcomeStore(this, size);
+            return new ColumnarOutcomeStore(sizes, size);
+        }
+    }
+
+    interface OutcomeStore {
+        void set(int index, int[] from, int offset);
+
+        void get(int index, int[] into, int offset);
+    }
+
+    static class PackedOutcomeStore implements OutcomeStore {
+        final BidCodec codec;
+        final long[] bids;
+
+        PackedOutcomeStore(BidCodec codec, int size) {
+            this.codec = codec;
+            bids = new long[size];
+        }
+
+        @Override
+        public void set(int index, int[] from, int offset) {
+            bids[index] = codec.pack(from, offset);
+        }
+
+        @Override
+        public void get(int index, int[] into, int offset) {
+            codec.unpack(bids[index], into, offset);
+        }
+    }
+
+    static class ColumnarOutcomeStore implements OutcomeStore {
+        /**
+         * Column per issue, using the narrowest type that holds all of its ordinals
+         * (only one of the three arrays is set for each issue).
+         */
+        final byte[][] byteColumns;
+        final short[][] shortColumns;
+        final int[][] intColumns;
+
+        ColumnarOutcomeStore(int[] sizes, int size) {
+            byteColumns = new byte[sizes.length][];
+            shortColumns = new short[sizes.length][];
+            intColumns = new int[sizes.length][];
+
+            for (int i = 0; i < sizes.length; ++i) {
+                if (sizes[i] <= 1 << 8) byteColumns[i] = new byte[size];
+                else if (sizes[i] <= 1 << 16) shortColumns[i] = new short[size];
+                else intColumns[i] = new int[size];
+            }
+        }
+
+        @Override
+        public void set(int index, int[] from, int offset) {
+            for (int i = 0; i < byteColumns.length; ++i) {
+                if (byteColumns[i] != null) byteColumns[i][index] = (byte) from[offset + i];
+                else if (shortColumns[i] != null) shortColumns[i][index] = (short) from[offset + i];
+                else intColumns[i][index] = from[offset + i];
+            }
+        }
+
+        @Override
+        public void get(int index, int[] into, int offset) {
+            for (int i = 0; i < byteColumns.length; ++i) {
+                if (byteColumns[i] != null) into[offset + i] = byteColumns[i][index] & 0xFF;
+                else if (shortColumns[i] != null) into[offset + i] = shortColumns[i][index] & 0xFFFF;
+                else into[offset + i] = intColumns[i][index];
+            }
+        }
+    }
+
+    static class Candidates {
+        /**
+         * Reusable buffer of encoded bids
+         * <p>
+         * width: The number of ordinals per bid
+         * size: The number of bids in the buffer
+         * ordinals: The ordinals of the bids, one row of width entries per bid
+         * utilities: Our undiscounted utility of each bid
+         * scores: Scratch space for a score of each bid (e.g. the estimated opponent utility)
+         */
+        final int width;
+        int size;
+        int[] ordinals;
+        double[] utilities, scores;
+
+        Candidates(int width) {
+            this.width = width;
+            ordinals = new int[16 * width];
+            utilities = new double[16];
+            scores = new double[16];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Add a bid to the buffer, its ordinals are to be written at the returned offset.
+         */
+        int append(double utility) {
+            if (size == utilities.length) {
+                utilities = Arrays.copyOf(utilities, 2 * size);
+                scores = Arrays.copyOf(scores, 2 * size);
+                ordinals = Arrays.copyOf(ordinals, 2 * size * width);
+            }
+            utilities[size] = utility;
+            return size++ * width;
+        }
+    }
+
+    static class BidSampler {
+        /**
+         * Weighted Random Selection
+         * <p>
+         * random: The source of randomness, seeded so sessions can be replayed
+         * prefixSums: Reusable buffer with the running sums of the weights
+         */
+        final SplittableRandom random;
+        double[] prefixSums = new double[16];
+
+        BidSampler(SplittableRandom random) {
+            this.random = random;
+        }
+
+        /**
+         * Pick a position with probability proportional to its weight. If the weights do not sum to
+         * a positive number, the last position is picked.
+         *
+         * @param weights
+         *             The weights, only the first size entries are used.
+         * @param size
+         *             The number of weights.
+         *
+         * @return The picked position.
+         */
+        int sample(double[] weights, int size) {
+            if (prefixSums.length < size)
+                prefixSums = new double[Math.max(size, 2 * prefixSums.length)];
+
+            double sum = 0.0;
+            for (int i = 0; i < size; ++i) {
+                sum += weights[i];
+                prefixSums[i] = sum;
+            }
+
+            if (!(sum > 0))
+                return size - 1;
+
+            double target = random.nextDouble() * sum;
+            int low = 0, high = size - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (prefixSums[mid] > target) high = mid;
+                else low = mid + 1;
+            }
+            return low;
+        }
+    }
+
+    enum JointObjective {
+        NASH_PRODUCT, MAX_MIN
+    }
+
+    class JointSelection {
+        /**
+         * Bid Selection against all Opponent Models
+         * <p>
+         * models: The opponent models that received bids, collected again every round
+         * tables: The value utilities of each model, only read while the bids are scored
+         **/
+        final List<PreferenceModel> models = new ArrayList<>();
+        double[][][] tables = new double[0][][];
+
+        /**
+         * Get a bid from the neighbourhood of the time-based utility, picked with a probability
+         * proportional to the joint objective over the estimated utilities of all opponents.
+         * While fewer than two opponents made an offer, the model of the sender decides alone.
+         *
+         * @param timeBasedUtility
+         *             The utility of the bid based on the time.
+         * @param sender
+         *             The model of the opponent that made the last offer.
+         *
+         * @return The optimal bid.
+         */
+        Bid getOptimalBid(double timeBasedUtility, PreferenceModel sender) {
+            models.clear();
+            for (PreferenceModel model : OPP_MODELS.values()) {
+                if (model.totalBids > 0)
+                    models.add(model);
+            }
+
+            if (models.size() < 2)
+                return sender.getOptimalBid(timeBasedUtility);
+
+            Range neighbourhood = getNeighbourhood(timeBasedUtility);
+            Candidates neighbourhoodBids = CTX_NEIGHBOURHOOD;
+
+            CTX_OUTCOMES.getBidsInRange(neighbourhood, neighbourhoodBids);
+
+            if (neighbourhoodBids.size == 1) {
+                return CTX_CODEC.decode(neighbourhoodBids.ordinals, 0);
+            }
+
+            if (neighbourhoodBids.size == 0) {
+                return CTX_OUTCOMES.getBidNearUtility(timeBasedUtility);
+            }
+
+            if (tables.length != models.size())
+                tables = new double[models.size()][][];
+            for (int i = 0; i < models.size(); ++i) {
+                models.get(i).refreshSnapshot();
+                tables[i] = models.get(i).valueUtilities;
+            }
+
+            // Beyond the per-round budget, only an evenly spread subset of the bids is scored
+            int stride = (neighbourhoodBids.size + OPP_JOINT_CANDIDATES - 1) / OPP_JOINT_CANDIDATES;
+            new JointScoring(neighbourhoodBids, tables, OPP_JOINT_OBJECTIVE, CTX_BUDGET, stride, OPP_PARALLEL_THRESHOLD, 0, neighbourhoodBids.size).invoke();
+
+            int optimalBid = CTX_SAMPLER.sample(neighbourhoodBids.scores, neighbourhoodBids.size);
+
+            return CTX_CODEC.decode(neighbourhoodBids.ordinals, optimalBid * neighbourhoodBids.width);
+        }
+    }
+
+    static class JointScoring extends RecursiveAction {
+        /**
+         * Scoring of a slice of the neighbourhood bids against all opponent models
+         * <p>
+         * candidates: The neighbourhood bids, each task writes the scores of its own slice only
+         * tables: The value utilities of each opponent model
+         * objective: How the estimated utilities of a bid are combined into its score
+         * budget: The time budget of the search, bids not scored before it runs out get a score of 0
+         * stride: Only every stride-th bid is scored, the others get a score of 0
+         * threshold: Number of scored bids below which a slice is not split any further
+         * from, to: The slice of bids scored by this task
+         **/
+        final Candidates candidates;
+        final double[][][] tables;
+        final JointObjective objective;
+        final SearchBudget budget;
+        final int stride, threshold, from, to;
+
+        JointScoring(Candidates candidates, double[][][] tables, JointObjective objective, SearchBudget budget, int stride, int threshold, int from, int to) {
+            this.candidates = candidates;
+            this.tables = tables;
+            this.objective = objective;
+            this.budget = budget;
+            this.stride = stride;
+            this.threshold = threshold;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ((to - from) / stride <= threshold) {
+                score();
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new JointScoring(candidates, tables, objective, budget, stride, threshold, from, middle),
+                    new JointScoring(candidates, tables, objective, budget, stride, threshold, middle, to));
+        }
+
+        void score() {
+            int width = candidates.width;
+            int[] ordinals = candidates.ordinals;
+            double[] scores = candidates.scores;
+
+            for (int i = from; i < to; ++i) {
+                if (i % stride != 0 || ((i - from) & 1023) == 1023 && budget.isExpired() || budget.cut) {
+                    scores[i] = 0;
+                    continue;
+                }
+
+                int offset = i * width;
+                double score = objective == JointObjective.NASH_PRODUCT ? 1 : Double.MAX_VALUE;
+                for (double[][] table : tables) {
+                    double utility = 0;
+                    for (int j = 0; j < width; ++j)
+                        utility += table[j][ordinals[offset + j]];
+                    score = objective == JointObjective.NASH_PRODUCT ? score * utility : Math.min(score, utility);
+                }
+                scores[i] = score;
+            }
+        }
+    }
+
+    class ParetoFrontier {
+        /**
+         * Pareto Frontier of our Utility against the Estimated Utility of an Opponent
+         * <p>
+         * model: The opponent model the bids are scored with
+         * band: The bids at most epsilon below the frontier, by descending utility for us (utilities: ours
+         *       undiscounted, scores: estimated utility of the opponent); dropped bids can only catch up
+         *       with the frontier once the estimates drifted by half of epsilon
+         * spare: The buffer the next band is built in
+         * keys: Reusable sort keys, our utility in the high bits and the position in the band in the low bits
+         * order: Reusable order of the band, by descending utility for us and then by descending estimate
+         * frontierUtilities: Reusable running maximum of the estimates along the band
+         * slots: Reusable open-addressing index of the band by bid (position + 1, 0 if empty), so no bid is
+         *        appended twice when a range is queried again
+         * slotsUsed: The number of bids in slots
+         * epsilon: How far below the frontier bids are kept, in estimated utility
+         * covered: The ranges of our utility whose bids have all been considered, sorted and disjoint
+         * scoredVersion: The model version the band was scored with
+         **/
+        final PreferenceModel model;
+        Candidates band, spare;
+        long[] keys = new long[16];
+        int[] order = new int[16];
+        double[] frontierUtilities = new double[16];
+        int[] slots = new int[32];
+        int slotsUsed;
+        final double epsilon;
+        final List<Range> covered = new ArrayList<>();
+        int scoredVersion;
+
+        ParetoFrontier(PreferenceModel model) {
+            this.model = model;
+            band = new Candidates(CTX_CODEC.width());
+            spare = new Candidates(CTX_CODEC.width());
+            epsilon = OPP_PARETO_BAND / model.domainIssues.size();
+            scoredVersion = model.version;
+        }
+
+        /**
+         * Collect the bids of the frontier whose utility for us lies within the range. If none
+         * does, the frontier bid right above the range is collected instead, as it is better for
+         * both sides than any bid of the range. Only the parts of the range that were not
+         * considered before are queried from the outcome index, until the search budget runs out.
+         *
+         * @param range
+         *             The (undiscounted) utility range.
+         * @param candidates
+         *             The buffer the encoded bids and their estimated utilities are written to.
+         */
+        void getBidsInRange(Range range, Candidates candidates) {
+            refresh();
+
+            // The band is sorted, so new bids that are already too far below it can be dropped right away
+            int sorted = band.size;
+            if (frontierUtilities.length < sorted)
+                frontierUtilities = new double[Math.max(sorted, 2 * frontierUtilities.length)];
+            for (int i = 0; i < sorted; ++i)
+                frontierUtilities[i] = Math.max(i > 0 ? frontierUtilities[i - 1] : Double.NEGATIVE_INFINITY, band.scores[i]);
+            index();
+
+            boolean added = false;
+            for (Range gap : getGaps(range.getLowerbound(), range.getUpperbound())) {
+                if (CTX_BUDGET.isExpired())
+                    break;
+
+                CTX_OUTCOMES.getBidsInRange(gap, candidates);
+
+                int considered = candidates.size;
+                for (int i = 0; i < candidates.size; ++i) {
+                    if ((i & 1023) == 1023 && CTX_BUDGET.isExpired()) {
+                        considered = i;
+                        break;
+                    }
+
+                    double estimate = model.getEstimatedUtility(candidates.ordinals, i * candidates.width);
+                    if (estimate < getFrontierUtility(candidates.utilities[i], sorted) - epsilon)
+                        continue;
+
+                    // Ranges that are not covered are queried again, and sampled ones may return a bid twice
+                    int slot = find(candidates.ordinals, i * candidates.width);
+                    if (slots[slot] != 0)
+                        continue;
+
+                    int offset = band.append(candidates.utilities[i]);
+                    System.arraycopy(candidates.ordinals, i * candidates.width, band.ordinals, offset, band.width);
+                    band.scores[band.size - 1] = estimate;
+                    added = true;
+
+                    slots[slot] = band.size;
+                    if (2 * ++slotsUsed > slots.length)
+                        index();
+                }
+
+                // A gap the search ran out of time in is covered down to the last bid considered, the next
+                // query of it resumes there (gaps include their bounds, so bids tied with it are considered again)
+                if (CTX_OUTCOMES.isExhaustive() && !CTX_BUDGET.cut)
+                    cover(gap);
+                else if (CTX_OUTCOMES.isDescending() && considered > 0)
+                    cover(new Range(candidates.utilities[considered - 1], gap.getUpperbound()));
+            }
+
+            if (added)
+                prune(true);
+
+            candidates.clear();
+            double frontierUtility = Double.NEGATIVE_INFINITY;
+            int above = -1;
+            for (int i = 0; i < band.size; ++i) {
+                if (band.scores[i] <= frontierUtility)
+                    continue;
+
+                frontierUtility = band.scores[i];
+                if (band.utilities[i] > range.getUpperbound())
+                    above = i;
+                else if (band.utilities[i] >= range.getLowerbound())
+                    copy(i, candidates);
+            }
+
+            if (candidates.size == 0 && above >= 0)
+                copy(above, candidates);
+        }
+
+        /**
+         * Get the highest estimate among the first bids of the band that are at least as good for us as the given utility.
+         */
+        double getFrontierUtility(double utility, int sorted) {
+            int low = 0, high = sorted;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (band.utilities[mid] >= utility)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low > 0 ? frontierUtilities[low - 1] : Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * Index every bid of the band, in a table at most half full.
+         */
+        void index() {
+            int capacity = Integer.highestOneBit(Math.max(16, band.size)) << 2;
+            if (slots.length < capacity)
+                slots = new int[capacity];
+            else
+                Arrays.fill(slots, 0);
+
+            for (int i = 0; i < band.size; ++i)
+                slots[find(band.ordinals, i * band.width)] = i + 1;
+            slotsUsed = band.size;
+        }
+
+        /**
+         * Get the slot of the index that holds the bid, or the empty slot it belongs in.
+         */
+        int find(int[] ordinals, int offset) {
+            int hash = 0;
+            for (int k = 0; k < band.width; ++k)
+                hash = 31 * hash + ordinals[offset + k];
+
+            int mask = slots.length - 1;
+            for (int slot = (hash ^ hash >>> 16) * 0x9E3779B9 & mask; ; slot = slot + 1 & mask) {
+                int position = slots[slot] - 1;
+                if (position < 0 || isSameBid(position, ordinals, offset))
+                    return slot;
+            }
+        }
+
+        boolean isSameBid(int position, int[] ordinals, int offset) {
+            for (int k = 0; k < band.width; ++k) {
+                if (band.ordinals[position * band.width + k] != ordinals[offset + k])
+                    return false;
+            }
+            return true;
+        }
+
+        void copy(int position, Candidates candidates) {
+            int offset = candidates.append(band.utilities[position]);
+            System.arraycopy(band.ordinals, position * band.width, candidates.ordinals, offset, band.width);
+            candidates.scores[candidates.size - 1] = band.scores[position];
+        }
+
+        /**
+         * Rescore the band after the model changed. Our utility does not change, so the order of
+         * the band holds. Once the estimates drifted too far, the dropped bids might be on the
+         * frontier again and everything is considered anew.
+         */
+        void refresh() {
+            if (scoredVersion == model.version)
+                return;
+
+            scoredVersion = model.version;
+            if (model.totalBids > 0)
+                model.refreshSnapshot();
+
+            if (2 * model.drift >= epsilon) {
+                model.drift = 0;
+                band.clear();
+                covered.clear();
+                return;
+            }
+
+            for (int i = 0; i < band.size; ++i)
+                band.scores[i] = model.getEstimatedUtility(band.ordinals, i * band.width);
+            prune(false);
+        }
+
+        /**
+         * Drop the bids that are more than epsilon below the frontier, i.e. below the highest
+         * estimate of the bids that are at least as good for us.
+         *
+         * @param sort
+         *             Whether bids were appended to the band, which then has to be sorted again.
+         */
+        void prune(boolean sort) {
+            int size = band.size;
+            if (order.length < size) {
+                keys = new long[Math.max(size, 2 * keys.length)];
+                order = new int[keys.length];
+            }
+
+            if (sort) {
+                // Utilities are not negative, so their bits sort like the utilities themselves
+                for (int i = 0; i < size; ++i)
+                    keys[i] = (long) Float.floatToIntBits((float) band.utilities[i]) << 32 | (size - 1 - i);
+                Arrays.sort(keys, 0, size);
+                for (int k = 0; k < size; ++k)
+                    order[k] = size - 1 - (int) keys[size - 1 - k];
+            } else {
+                for (int k = 0; k < size; ++k)
+                    order[k] = k;
+            }
+
+            // Bids of equal utility for us go by descending estimate, many of them share a utility in
+            // domains with few distinct evaluations and an insertion pass over them would be quadratic
+            for (int from = 0, to; from < size; from = to) {
+                float utility = (float) band.utilities[order[from]];
+                for (to = from + 1; to < size && (float) band.utilities[order[to]] == utility; ++to)
+                    ;
+                if (to - from < 2)
+                    continue;
+
+                for (int k = from; k < to; ++k)
+                    keys[k] = (long) Float.floatToIntBits((float) band.scores[order[k]]) << 32 | (size - 1 - order[k]);
+                Arrays.sort(keys, from, to);
+                for (int k = from; k < to; ++k)
+                    order[k] = size - 1 - (int) keys[from + to - 1 - k];
+            }
+
+            // The keys only order up to float precision, an insertion pass over the nearly sorted
+            // band puts the few bids that are out of place right
+            for (int k = 1; k < size; ++k) {
+                int i = order[k], j = k - 1;
+                for (; j >= 0 && isBefore(i, order[j]); --j)
+                    order[j + 1] = order[j];
+                order[j + 1] = i;
+            }
+
+            spare.clear();
+            double frontierUtility = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < size; ++k) {
+                int i = order[k];
+                if (band.scores[i] < frontierUtility - epsilon)
+                    continue;
+
+                int offset = spare.append(band.utilities[i]);
+                System.arraycopy(band.ordinals, i * band.width, spare.ordinals, offset, band.width);
+                spare.scores[spare.size - 1] = band.scores[i];
+                frontierUtility = Math.max(frontierUtility, band.scores[i]);
+            }
+
+            Candidates pruned = spare;
+            spare = band;
+            band = pruned;
+        }
+
+        boolean isBefore(int i, int j) {
+            return band.utilities[i] > band.utilities[j] || band.utilities[i] == band.utilities[j] && band.scores[i] > band.scores[j];
+        }
+
+        /**
+         * Get the parts of the range that have not been considered yet.
+         */
+        List<Range> getGaps(double lower, double upper) {
+            List<Range> gaps = new ArrayList<>();
+
+            double from = lower;
+            for (Range range : covered) {
+                if (range.getUpperbound() < from)
+                    continue;
+                if (range.getLowerbound() > upper)
+                    break;
+
+                if (range.getLowerbound() > from)
+                    gaps.add(new Range(from, range.getLowerbound()));
+                from = range.getUpperbound();
+                if (from >= upper)
+                    return gaps;
+            }
+
+            gaps.add(new Range(from, upper));
+            return gaps;
+        }
+
+        void cover(Range gap) {
+            covered.add(gap);
+            covered.sort(Comparator.comparingDouble(Range::getLowerbound));
+
+            List<Range> merged = new ArrayList<>();
+            for (Range range : covered) {
+                Range last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && range.getLowerbound() <= last.getUpperbound())
+                    merged.set(merged.size() - 1, new Range(last.getLowerbound(), Math.max(last.getUpperbound(), range.getUpperbound())));
+                else
+                    merged.add(range);
+            }
+
+            covered.clear();
+            covered.addAll(merged);
+        }
+    }
+
+    class PreferenceModel {
+        /**
+         * Preference Model of an Agent
+         * <p>
+         * frequencyTable: The frequency of each value, per issue, indexed by its codec ordinal (integer
+         *                 and real values are counted per bucket), null if a subclass counts on its own
+         * frequencySums: Running sum of the frequencies of each issue (null along with frequencyTable)
+         * frequencySquares: Running sum of the squared frequencies of each issue (null along with frequencyTable)
+         * bidsReceived: Total number of bids received from this agent (aka. totalBids), including the decayed bids of earlier sessions
+         * domainIssues: The issues of the domain
+         * issueWeights: The weights of the issues
+         * version: Incremented every time the model is updated
+         * snapshotVersion: The version the cached tables below were computed for
+         * normalizedIssueWeights: The issue weights normalized to sum to one (cached)
+         * valueUtilities: The estimated utility each value ordinal adds to a bid, per issue (cached)
+         * drift: Upper bound on how much any estimate changed since the frontier was last rebuilt from scratch
+         * frontier: The Pareto frontier of our utility against the estimated utility of this agent
+         * bestBid: The bid received from this agent with the highest utility for us
+         * bestBidUtility: Our undiscounted utility of bestBid
+         * recentBids: Ring buffer with the last OPP_WINDOW_SIZE bids received from this agent
+         * recentUtilities: Our undiscounted utility of each recent bid (parallel to recentBids)
+         * recentNext: The slot of the ring buffer the next bid is written to
+         * recentCount: The number of bids in the ring buffer
+         */
+        final int[][] frequencyTable;
+        long[] frequencySums, frequencySquares;
+        int bidsReceived, totalBids;
+        List<Issue> domainIssues;
+        double[] issueWeights;
+        int version, snapshotVersion = -1;
+        double[] normalizedIssueWeights;
+        double[][] valueUtilities;
+        double drift;
+        ParetoFrontier frontier;
+
+        Bid bestBid;
+        double bestBidUtility = 0.0;
+        Bid[] recentBids = new Bid[OPP_WINDOW_SIZE];
+        double[] recentUtilities = new double[OPP_WINDOW_SIZE];
+        int recentNext, recentCount;
+
+        PreferenceModel(List<Issue> domainIssues) {
+            this(domainIssues, true);
+        }
+
+        /**
+         * @param counting
+         *            Whether the frequencies are counted in frequencyTable, false for a subclass
+         *            that overrides every method that reads or writes them.
+         */
+        PreferenceModel(List<Issue> domainIssues, boolean counting) {
+            bidsReceived = 0;
+
+            this.domainIssues = domainIssues;
+            issueWeights = new double[domainIssues.size()];
+            if (counting) {
+                frequencySums = new long[domainIssues.size()];
+                frequencySquares = new long[domainIssues.size()];
+            }
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                issueWeights[i] = 0;
+            }
+
+            normalizedIssueWeights = new double[domainIssues.size()];
+            frequencyTable = counting ? new int[domainIssues.size()][] : null;
+            valueUtilities = new double[domainIssues.size()][];
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                if (counting)
+                    frequencyTable[i] = new int[CTX_CODEC.sizes[i]];
+                valueUtilities[i] = new double[CTX_CODEC.sizes[i]];
+            }
+
+            frontier = new ParetoFrontier(this);
+        }
+
+        /**
+         * Update the preference model with a new bid. Only the counter of the offered value
+         * changes for each issue, so the running sums are adjusted instead of rescanning the table.
+         * The values are looked up through the codec, so nothing is allocated.
+         *
+         * @param bid
+         *            The bid to update the model with.
+         */
+        void update(Bid bid) {
+            if (!isComplete(bid))
+                return;
+
+            bidsReceived++;
+            totalBids = bidsReceived;
+            version++;
+
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                int frequency = frequencyTable[i][CTX_CODEC.getOrdinal(i, bid.getValue(CTX_CODEC.issueNumbers[i]))]++;
+
+                // (f + 1)^2 - f^2 = 2f + 1
+                frequencySums[i] += 1;
+                frequencySquares[i] += 2L * frequency + 1;
+
+                issueWeights[i] = getStandardDeviation(i);
+            }
+        }
+
+        /**
+         * Whether the bid has a value for every issue of the domain. Bid.getValues() copies the
+         * values, so only the issues of the domain are looked up.
+         */
+        boolean isComplete(Bid bid) {
+            if (bid == null)
+                return false;
+
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                if (bid.getValue(CTX_CODEC.issueNumbers[i]) == null)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Start from the counts of earlier sessions, as if the bids behind them had been received.
+         *
+         * @param counts
+         *            The count of each ordinal per issue (in codec order), null for issues without counts.
+         */
+        void warmStart(int[][] counts) {
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                if (counts[i] == null)
+                    continue;
+
+                for (int j = 0; j < counts[i].length; ++j) {
+                    frequencyTable[i][j] = counts[i][j];
+                    frequencySums[i] += counts[i][j];
+                    frequencySquares[i] += (long) counts[i][j] * counts[i][j];
+                }
+
+                // Every bid counts once for each issue, rounding the decayed counts may only add a few
+                bidsReceived = (int) Math.max(bidsReceived, frequencySums[i]);
+                issueWeights[i] = getStandardDeviation(i);
+            }
+
+            totalBids = bidsReceived;
+            version++;
+        }
+
+        int[][] getCounts() {
+            int[][] counts = new int[domainIssues.size()][];
+            for (int i = 0; i < domainIssues.size(); ++i)
+                counts[i] = frequencyTable[i].clone();
+            return counts;
+        }
+
+        /**
+         * Get the (population) standard deviation of the frequencies of an issue.
+         *
+         * @param issue
+         *            The position of the issue in domainIssues.
+         * @return
+         *            The standard deviation, computed from the running sums as
+         *            sqrt((n * sum(f^2) - sum(f)^2) / n^2) with an exact integer numerator.
+         */
+        double getStandardDeviation(int issue) {
+            long n = frequencyTable[issue].length;
+            long numerator = n * frequencySquares[issue] - frequencySums[issue] * frequencySums[issue];
+            return Math.sqrt((double) numerator / ((double) n * n));
+        }
+
+        /**
+         * Recompute the cached utility tables if the model changed since they were last built.
+         */
+        void refreshSnapshot() {
+            if (snapshotVersion == version)
+                return;
+
+            double sumOfWeights = 0;
+            for (double weight : issueWeights)
+                sumOfWeights += weight;
+
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                normalizedIssueWeights[i] = issueWeights[i] / sumOfWeights;
+
+                // A bid changes by at most the largest change of the value it has for each issue
+                double issueDrift = 0;
+                for (int j = 0; j < valueUtilities[i].length; ++j) {
+                    double valueUtility = getFrequencyShare(i, j) * normalizedIssueWeights[i] / domainIssues.size();
+                    issueDrift = Math.max(issueDrift, Math.abs(valueUtility - valueUtilities[i][j]));
+                    valueUtilities[i][j] = valueUtility;
+                }
+                drift += issueDrift;
+            }
+
+            snapshotVersion = version;
+        }
+
+        /**
+         * Get the share of the bids received that have the value for the issue.
+         */
+        double getFrequencyShare(int issue, int ordinal) {
+            return (double) frequencyTable[issue][ordinal] / totalBids;
+        }
+
+        /**
+         * Get the estimated utility of a bid based on the frequency table.
+         *
+         * @param bid
+         *            The bid to estimate the utility of.
+         * @return
+         *            The estimated utility of the bid.
+         */
+        double getEstimatedUtility(Bid bid) {
+            double utility = 0.0;
+
+            if (totalBids == 0) return utility;
+
+            refreshSnapshot();
+
+            for (int i = 0; i < domainIssues.size(); ++i)
+                utility += valueUtilities[i][CTX_CODEC.getOrdinal(i, bid.getValue(CTX_CODEC.issueNumbers[i]))];
+
+            return utility;
+        }
+
+        /**
+         * Get the estimated utility of an encoded bid based on the frequency table.
+         *
+         * @param ordinals
+         *            The buffer holding the encoded bid.
+         * @param offset
+         *            The position of the bid inside the buffer.
+         * @return
+         *            The estimated utility of the bid.
+         */
+        double getEstimatedUtility(int[] ordinals, int offset) {
+            double utility = 0.0;
+
+            if (totalBids == 0) return utility;
+
+            refreshSnapshot();
+
+            for (int i = 0; i < domainIssues.size(); ++i)
+                utility += valueUtilities[i][ordinals[offset + i]];
+
+            return utility;
+        }
+
+        /**
+         * Get the optimal bid based on the estimated utility.
+         *
+         * @param timeBasedUtility
+         *             The utility of the bid based on the time.
+         *
+         * @return The optimal bid.
+         */
+        Bid getOptimalBid(double timeBasedUtility) {
+            Range neighbourhood = getNeighbourhood(timeBasedUtility);
+            Candidates neighbourhoodBids = CTX_NEIGHBOURHOOD;
+
+            // Only the Pareto-efficient bids of the neighbourhood are worth offering, scored by their estimated utility
+            frontier.getBidsInRange(neighbourhood, neighbourhoodBids);
+
+            if (neighbourhoodBids.size == 1) {
+                return CTX_CODEC.decode(neighbourhoodBids.ordinals, 0);
+            }
+
+            if (neighbourhoodBids.size == 0) {
+                return CTX_OUTCOMES.getBidNearUtility(timeBasedUtility);
+            }
+
+//            double maxEstimatedUtility = 0;
+//            for (Bid bid : neighbourhoodBids) {
+//                double estimatedUtility = getEstimatedUtility(bid);
+//                if (estimatedUtility > maxEstimatedUtility) {
+//                    maxEstimatedUtility = estimatedUtility;
+//                    optimalBid = bid;
+//                }
+//            }
+
+            int optimalBid = CTX_SAMPLER.sample(neighbourhoodBids.scores, neighbourhoodBids.size);
+
+            return CTX_CODEC.decode(neighbourhoodBids.ordinals, optimalBid * neighbourhoodBids.width);
+        }
+
+        /**
+         * Record a bid received from this agent. Our utility of the bid is computed once here,
+         * undiscounted: the discount scales every utility alike, so it does not change which
+         * bid is best or closest to the running average.
+         *
+         * @param bid
+         *            The bid received.
+         */
+        void addToBidHistory(Bid bid) {
+            double utility = CTX_UTILITIES.getUtility(bid);
+
+            if (utility > bestBidUtility) {
+                bestBidUtility = utility;
+                bestBid = bid;
+            }
+
+            addToWindow(bid, utility);
+        }
+
+        void addToWindow(Bid bid, double utility) {
+            recentBids[recentNext] = bid;
+            recentUtilities[recentNext] = utility;
+            recentNext = (recentNext + 1) % recentBids.length;
+            recentCount = Math.min(recentCount + 1, recentBids.length);
+        }
+
+        /**
+         * Get the bid from the bid history with the highest utility for us.
+         *
+         * @return The bid with the highest utility for us.
+         */
+        Bid getBestBid() {
+            return bestBid;
+        }
+
+        /**
+         * Get how much the best bid counts when it is weighed against the running bid.
+         *
+         * @return Our undiscounted utility of the best bid.
+         */
+        double getBestBidScore() {
+            return bestBidUtility;
+        }
+
+        /**
+         * Get the running average of the utility of the bids in the recent window.
+         *
+         * @return The bid with utility near the running average.
+         */
+        Bid getRunningBid() {
+            int oldest = (recentNext - recentCount + recentBids.length) % recentBids.length;
+
+            double averageUtility = 0.0;
+            for (int i = 0; i < recentCount; ++i) {
+                averageUtility += recentUtilities[(oldest + i) % recentBids.length];
+            }
+            averageUtility /= recentCount;
+
+            Bid optimalBid = null;
+            double minDistance = Double.MAX_VALUE;
+            for (int i = 0; i < recentCount; ++i) {
+                int slot = (oldest + i) % recentBids.length;
+                double distance = Math.abs(recentUtilities[slot] - averageUtility);
+                if (distance < minDistance) {
                     minDistance = distance;
-                    optimalBid = bid;
+                    optimalBid = recentBids[slot];
                 }
             }
             return optimalBid;
@@ -509,4 +3184,145 @@ public class TwistedFate extends AbstractNegotiationParty {
 //            return similarity / domainIssues.size();
 //        }
     }
+
+    class DecayedPreferenceModel extends PreferenceModel {
+        /**
+         * Preference Model that forgets, for very long negotiations and opponents that change their strategy
+         * <p>
+         * decay: The weight a bid keeps with every later bid received from this agent
+         * counts: The decayed frequency of each value, per issue, indexed by its codec ordinal, in units of increment
+         * sums, squares: Running sums of the counts and of the squared counts of each issue
+         * increment: What the next bid adds to its counts. Rather than shrinking every count, it grows by
+         *            1 / decay with every bid, and is folded back into the counts before it can overflow
+         * bestBidScore: Our undiscounted utility of bestBid, decayed with every bid received after it
+         */
+        final double decay;
+        final double[][] counts;
+        final double[] sums, squares;
+        double increment = 1, bestBidScore;
+
+        DecayedPreferenceModel(List<Issue> domainIssues, double decay) {
+            super(domainIssues, false);
+            this.decay = decay;
+
+            counts = new double[domainIssues.size()][];
+            for (int i = 0; i < domainIssues.size(); ++i)
+                counts[i] = new double[CTX_CODEC.sizes[i]];
+            sums = new double[domainIssues.size()];
+            squares = new double[domainIssues.size()];
+        }
+
+        @Override
+        void update(Bid bid) {
+            if (!isComplete(bid))
+                return;
+
+            bidsReceived++;
+            totalBids = bidsReceived;
+            version++;
+
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                int ordinal = CTX_CODEC.getOrdinal(i, bid.getValue(CTX_CODEC.issueNumbers[i]));
+                double count = counts[i][ordinal];
+                counts[i][ordinal] = count + increment;
+
+                // (c + d)^2 - c^2 = d (2c + d)
+                sums[i] += increment;
+                squares[i] += increment * (2 * count + increment);
+            }
+
+            increment /= decay;
+            if (increment > 1e64)
+                rescale();
+
+            for (int i = 0; i < domainIssues.size(); ++i)
+                issueWeights[i] = getStandardDeviation(i);
+        }
+
+        /**
+         * Fold the increment back into the counts, which are then in units of the most recent bid.
+         */
+        void rescale() {
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                sums[i] = squares[i] = 0;
+                for (int j = 0; j < counts[i].length; ++j) {
+                    counts[i][j] /= increment;
+                    sums[i] += counts[i][j];
+                    squares[i] += counts[i][j] * counts[i][j];
+                }
+            }
+            increment = 1;
+        }
+
+        /**
+         * The counts of earlier sessions count as much as the bids received so far.
+         */
+        @Override
+        void warmStart(int[][] counts) {
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                if (counts[i] == null)
+                    continue;
+
+                for (int j = 0; j < counts[i].length; ++j) {
+                    this.counts[i][j] = counts[i][j] * increment;
+                    sums[i] += this.counts[i][j];
+                    squares[i] += this.counts[i][j] * this.counts[i][j];
+                }
+
+                bidsReceived = (int) Math.max(bidsReceived, Math.round(sums[i] / increment));
+                issueWeights[i] = getStandardDeviation(i);
+            }
+
+            totalBids = bidsReceived;
+            version++;
+        }
+
+        /**
+         * Get the decayed counts, rounded, as if every bid so far had been received in a session of its own.
+         */
+        @Override
+        int[][] getCounts() {
+            int[][] counts = new int[domainIssues.size()][];
+            for (int i = 0; i < domainIssues.size(); ++i) {
+                counts[i] = new int[this.counts[i].length];
+                for (int j = 0; j < counts[i].length; ++j)
+                    counts[i][j] = (int) Math.round(this.counts[i][j] / increment);
+            }
+            return counts;
+        }
+
+        @Override
+        double getStandardDeviation(int issue) {
+            int n = counts[issue].length;
+            double mean = sums[issue] / n;
+            return Math.sqrt(Math.max(0, squares[issue] / n - mean * mean));
+        }
+
+        @Override
+        double getFrequencyShare(int issue, int ordinal) {
+            return sums[issue] > 0 ? counts[issue][ordinal] / sums[issue] : 0;
+        }
+
+        /**
+         * Only the recent window is kept, and a bid stays the best bid only until a bid that is
+         * better than its decayed utility comes in.
+         */
+        @Override
+        void addToBidHistory(Bid bid) {
+            double utility = CTX_UTILITIES.getUtility(bid);
+
+            bestBidScore *= decay;
+            if (bestBid == null || utility >= bestBidScore) {
+                bestBidScore = bestBidUtility = utility;
+                bestBid = bid;
+            }
+
+            addToWindow(bid, utility);
+        }
+
+        @Override
+        double getBestBidScore() {
+            return bestBidScore;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+import genius.core.AgentID;
+import genius.core.Bid;
+import twistedfate.bench.AgentProbe;
+
+/**
+ * TwistedFate with the opponent model exposed, for the benchmarks (which cannot import from the default package).
+ */
+public class TwistedFateProbe extends TwistedFate implements AgentProbe {
+    public TwistedFateProbe() {
+        LOGGING = false;
+    }
+
+    @Override
+    public void updateModel(AgentID sender, Bid bid) {
+        getModel(sender).update(bid);
+    }
+
+    @Override
+    public Bid getOptimalBid(AgentID sender, double targetUtility) {
+        return getModel(sender).getOptimalBid(targetUtility);
+    }
+
+    PreferenceModel getModel(AgentID sender) {
+        return OPP_MODELS.computeIfAbsent(sender, s -> newModel());
+    }
+}
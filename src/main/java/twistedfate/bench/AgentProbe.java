@@ -0,0 +1,31 @@
+package twistedfate.bench;
+
+import genius.core.AgentID;
+import genius.core.Bid;
+import genius.core.parties.NegotiationParty;
+
+/**
+ * The agent as seen by the benchmarks: the regular party interface plus its opponent model.
+ */
+public interface AgentProbe extends NegotiationParty {
+    /**
+     * Update the model of the given opponent with a bid, without any of the bookkeeping of receiveMessage.
+     */
+    void updateModel(AgentID sender, Bid bid);
+
+    /**
+     * The bid the model of the given opponent proposes for a target utility.
+     */
+    Bid getOptimalBid(AgentID sender, double targetUtility);
+
+    /**
+     * A new, uninitialised agent with logging disabled.
+     */
+    static AgentProbe create() {
+        try {
+            return (AgentProbe) Class.forName("TwistedFateProbe").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("TwistedFateProbe is not on the class path", e);
+        }
+    }
+}
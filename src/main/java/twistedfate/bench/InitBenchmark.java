@@ -0,0 +1,42 @@
+package twistedfate.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initialisation of the agent, which builds the outcome index and the utility tables for the domain.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InitBenchmark {
+    @Param({"4x5", "3,6,9,12", "12x2", "5x10", "6x10", "20x2"})
+    public String shape;
+
+    Session session;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        session = new Session(shape, 1, 1);
+    }
+
+    @Benchmark
+    public AgentProbe init() {
+        return session.newAgent(0);
+    }
+}
@@ -0,0 +1,93 @@
+package twistedfate.bench;
+
+import genius.core.Bid;
+import genius.core.actions.Accept;
+import genius.core.actions.Action;
+import genius.core.actions.Inform;
+import genius.core.actions.Offer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-round entry points of the agent, halfway through a session against a conceding opponent.
+ * <p>
+ * The agent is created again for every iteration, so the opponent model and bid history only grow
+ * by what a single iteration adds.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundBenchmark {
+    static final List<Class<? extends Action>> ACTIONS = Arrays.asList(Accept.class, Offer.class);
+
+    @State(Scope.Benchmark)
+    public static class Domain {
+        @Param({"4x5", "3,6,9,12", "12x2", "5x10", "6x10", "20x2"})
+        public String shape;
+
+        Session session;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            session = new Session(shape, 1, 4096);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Agent {
+        AgentProbe agent;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(Domain domain) {
+            agent = domain.session.newAgent(Session.ROUNDS / 2);
+            agent.receiveMessage(null, new Inform(null, "NumberOfAgents", 2));
+
+            // A model with some history, as it would be halfway through the session
+            for (next = 0; next < 64; ++next)
+                agent.receiveMessage(Session.OPPONENT, domain.session.offer(next));
+        }
+    }
+
+    @Benchmark
+    public Action chooseAction(Agent agent) {
+        return agent.agent.chooseAction(ACTIONS);
+    }
+
+    @Benchmark
+    public void receiveMessage(Domain domain, Agent agent) {
+        agent.agent.receiveMessage(Session.OPPONENT, domain.session.offer(agent.next++));
+    }
+
+    @Benchmark
+    public Action round(Domain domain, Agent agent) {
+        agent.agent.receiveMessage(Session.OPPONENT, domain.session.offer(agent.next++));
+        return agent.agent.chooseAction(ACTIONS);
+    }
+
+    @Benchmark
+    public void updateModel(Domain domain, Agent agent) {
+        agent.agent.updateModel(Session.OPPONENT, domain.session.offer(agent.next++).getBid());
+    }
+
+    @Benchmark
+    public Bid getOptimalBid(Domain domain, Agent agent) {
+        return agent.agent.getOptimalBid(Session.OPPONENT, domain.session.target(agent.next++));
+    }
+}
@@ -0,0 +1,67 @@
+package twistedfate.bench;
+
+import genius.core.AgentID;
+import genius.core.Bid;
+import genius.core.Deadline;
+import genius.core.DeadlineType;
+import genius.core.actions.Offer;
+import genius.core.parties.NegotiationInfo;
+import genius.core.timeline.DiscreteTimeline;
+import genius.core.utility.AdditiveUtilitySpace;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A bilateral session on a synthetic domain: our profile, an opposed opponent profile and a stream of opponent offers.
+ */
+public final class Session {
+    public static final AgentID OPPONENT = new AgentID("Opponent@2");
+    public static final int ROUNDS = 1000;
+
+    public final SyntheticDomain domain;
+    public final Offer[] offers;
+    public final double[] targets;
+
+    public Session(String shape, long seed, int offers) throws Exception {
+        domain = SyntheticDomain.generate(shape, 2, seed);
+
+        // Offers of a conceding opponent, so every part of the agent's range gets visited
+        AdditiveUtilitySpace opponent = domain.profiles.get(1);
+        Random random = new Random(seed);
+        Bid[] bids = new Bid[offers];
+        for (int i = 0; i < offers; ++i)
+            bids[i] = domain.domain.getRandomBid(random);
+        Arrays.sort(bids, (a, b) -> Double.compare(opponent.getUtility(b), opponent.getUtility(a)));
+
+        this.offers = new Offer[offers];
+        for (int i = 0; i < offers; ++i)
+            this.offers[i] = new Offer(OPPONENT, bids[i]);
+
+        targets = new double[offers];
+        for (int i = 0; i < offers; ++i)
+            targets[i] = 0.5 + 0.5 * random.nextDouble();
+    }
+
+    /**
+     * Initialise a new agent for this session, with the timeline moved to the given round.
+     */
+    public AgentProbe newAgent(int round) {
+        DiscreteTimeline timeline = new DiscreteTimeline(ROUNDS);
+        for (int i = 0; i < round; ++i)
+            timeline.increment();
+
+        AgentProbe agent = AgentProbe.create();
+        agent.init(new NegotiationInfo(domain.profiles.get(0), new Deadline(ROUNDS, DeadlineType.ROUND), timeline, 42, new AgentID("TwistedFate@1"), null));
+        return agent;
+    }
+
+    public Offer offer(int i) {
+        return offers[i % offers.length];
+    }
+
+    public double target(int i) {
+        return targets[i % targets.length];
+    }
+}
@@ -0,0 +1,61 @@
+package twistedfate.sim;
+
+import genius.core.Bid;
+import genius.core.bidding.BidDetails;
+import genius.core.boaframework.SortedOutcomeSpace;
+import genius.core.utility.AdditiveUtilitySpace;
+
+import java.util.List;
+
+/**
+ * A bilateral scenario: the profile of the agent, the profile of the stand-in opponent and the outcome space of the
+ * latter sorted by its utility. Scenarios are only read during a session, so all sessions on a domain share one.
+ */
+public final class Scenario {
+    public final String name;
+    public final AdditiveUtilitySpace agentProfile, opponentProfile;
+    final List<BidDetails> opponentOutcomes;
+    final double[] opponentUtilities;
+
+    public Scenario(String name, AdditiveUtilitySpace agentProfile, AdditiveUtilitySpace opponentProfile) {
+        this.name = name;
+        this.agentProfile = agentProfile;
+        this.opponentProfile = opponentProfile;
+
+        opponentOutcomes = new SortedOutcomeSpace(opponentProfile).getAllOutcomes();
+        opponentUtilities = new double[opponentOutcomes.size()];
+        for (int i = 0; i < opponentUtilities.length; ++i)
+            opponentUtilities[i] = opponentOutcomes.get(i).getMyUndiscountedUtil();
+    }
+
+    public static Scenario generate(String shape, long seed) throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate(shape, 2, seed);
+        return new Scenario(shape + "#" + seed, domain.profiles.get(0), domain.profiles.get(1));
+    }
+
+    double getOpponentMaxUtility() {
+        return opponentUtilities[0];
+    }
+
+    double getOpponentMinUtility() {
+        return opponentUtilities[opponentUtilities.length - 1];
+    }
+
+    /**
+     * The bid whose utility for the opponent is closest to the given utility (utilities are in descending order).
+     */
+    Bid getOpponentBidNearUtility(double utility) {
+        int low = 0, high = opponentUtilities.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (opponentUtilities[mid] > utility)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        if (low > 0 && opponentUtilities[low - 1] - utility < utility - opponentUtilities[low])
+            --low;
+        return opponentOutcomes.get(low).getBid();
+    }
+}
@@ -0,0 +1,103 @@
+package twistedfate.sim;
+
+import genius.core.Bid;
+import genius.core.timeline.TimeLineInfo;
+
+import java.util.Random;
+
+/**
+ * A simple, well-known negotiation strategy the agent is played against in headless sessions.
+ * <p>
+ * Every stand-in proposes the bid closest to a target utility and accepts when the bid it received is worth at least
+ * as much to it as the bid it would propose next (AC_next). A new instance is created for every session.
+ */
+public abstract class StandInOpponent {
+    public enum Kind {
+        BOULWARE, CONCEDER, TIT_FOR_TAT, RANDOM;
+
+        public StandInOpponent create() {
+            switch (this) {
+                case BOULWARE:
+                    return new TimeDependent(0.2);
+                case CONCEDER:
+                    return new TimeDependent(2.0);
+                case TIT_FOR_TAT:
+                    return new TitForTat();
+                default:
+                    return new RandomBidder();
+            }
+        }
+    }
+
+    Scenario scenario;
+    TimeLineInfo timeline;
+    Random random;
+    double minUtility, maxUtility;
+
+    void init(Scenario scenario, TimeLineInfo timeline, Random random) {
+        this.scenario = scenario;
+        this.timeline = timeline;
+        this.random = random;
+
+        maxUtility = scenario.getOpponentMaxUtility();
+        minUtility = Math.max(scenario.getOpponentMinUtility(), scenario.opponentProfile.getReservationValueUndiscounted());
+    }
+
+    /**
+     * The utility the next bid should have for us, given the last bid of the agent (null before it made one).
+     */
+    abstract double getTargetUtility(Bid received);
+
+    Bid propose(Bid received) {
+        return scenario.getOpponentBidNearUtility(getTargetUtility(received));
+    }
+
+    boolean accepts(Bid received, Bid next) {
+        return received != null && scenario.opponentProfile.getUtility(received) >= scenario.opponentProfile.getUtility(next);
+    }
+
+    /**
+     * Concedes from the maximum to the minimum utility as time^(1/e): Boulware for e < 1, Conceder for e > 1.
+     */
+    static class TimeDependent extends StandInOpponent {
+        final double e;
+
+        TimeDependent(double e) {
+            this.e = e;
+        }
+
+        @Override
+        double getTargetUtility(Bid received) {
+            return maxUtility - (maxUtility - minUtility) * Math.pow(timeline.getTime(), 1 / e);
+        }
+    }
+
+    /**
+     * Relative tit-for-tat: concedes as much utility as the agent conceded to us since its first bid.
+     */
+    static class TitForTat extends StandInOpponent {
+        double firstUtility = Double.NaN;
+
+        @Override
+        double getTargetUtility(Bid received) {
+            if (received == null)
+                return maxUtility;
+
+            double utility = scenario.opponentProfile.getUtility(received);
+            if (Double.isNaN(firstUtility))
+                firstUtility = utility;
+
+            return Math.max(minUtility, maxUtility - Math.max(0, utility - firstUtility));
+        }
+    }
+
+    /**
+     * Proposes uniformly random utilities above its reservation value.
+     */
+    static class RandomBidder extends StandInOpponent {
+        @Override
+        double getTargetUtility(Bid received) {
+            return minUtility + random.nextDouble() * (maxUtility - minUtility);
+        }
+    }
+}
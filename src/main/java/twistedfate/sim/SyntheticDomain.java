@@ -0,0 +1,172 @@
+package twistedfate.sim;
+
+import genius.core.Domain;
+import genius.core.DomainImpl;
+import genius.core.utility.AdditiveUtilitySpace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A randomly generated discrete domain with additive preference profiles.
+ * <p>
+ * The domain and profiles are written as regular Genius XML files and loaded through the Genius
+ * parsers, so agents see exactly what they would see in a tournament. Every odd profile mostly
+ * mirrors the profile before it, which gives pairs of opposed negotiators.
+ */
+public final class SyntheticDomain {
+    public final Domain domain;
+    public final List<AdditiveUtilitySpace> profiles;
+    public final long outcomes;
+
+    private SyntheticDomain(Domain domain, List<AdditiveUtilitySpace> profiles, long outcomes) {
+        this.domain = domain;
+        this.profiles = Collections.unmodifiableList(profiles);
+        this.outcomes = outcomes;
+    }
+
+    /**
+     * Parse a domain shape, either "issues x values" (e.g. "6x10") or the value count of every issue (e.g. "4,8,12").
+     */
+    public static int[] parseShape(String shape) {
+        if (shape.contains("x")) {
+            String[] parts = shape.split("x");
+            int[] valueCounts = new int[Integer.parseInt(parts[0].trim())];
+            for (int i = 0; i < valueCounts.length; ++i)
+                valueCounts[i] = Integer.parseInt(parts[1].trim());
+            return valueCounts;
+        }
+
+        String[] parts = shape.split(",");
+        int[] valueCounts = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i)
+            valueCounts[i] = Integer.parseInt(parts[i].trim());
+        return valueCounts;
+    }
+
+    public static SyntheticDomain generate(String shape, int profiles, long seed) throws Exception {
+        return generate(parseShape(shape), profiles, seed, 1.0, 0.0);
+    }
+
+    /**
+     * Generate a domain and its profiles.
+     *
+     * @param valueCounts
+     *            The number of values of each issue.
+     * @param profiles
+     *            The number of preference profiles to generate.
+     * @param seed
+     *            Seed for the weights and evaluations.
+     * @param discountFactor
+     *            Discount factor of every profile.
+     * @param reservationValue
+     *            Reservation value of every profile.
+     * @return The loaded domain and profiles.
+     */
+    public static SyntheticDomain generate(int[] valueCounts, int profiles, long seed, double discountFactor, double reservationValue) throws Exception {
+        Random random = new Random(seed);
+        File directory = Files.createTempDirectory("twistedfate-domain").toFile();
+        // Genius reads the files once while parsing, so they are removed right after
+        try {
+            File domainFile = new File(directory, "domain.xml");
+            writeDomain(domainFile, valueCounts);
+            Domain domain = new DomainImpl(domainFile.getAbsolutePath());
+
+            List<AdditiveUtilitySpace> spaces = new ArrayList<>();
+            int[][] evaluations = null;
+            for (int k = 0; k < profiles; ++k) {
+                evaluations = k % 2 == 1 ? mirror(evaluations, random) : randomEvaluations(valueCounts, random);
+
+                File profileFile = new File(directory, "profile" + (k + 1) + ".xml");
+                writeProfile(profileFile, valueCounts, randomWeights(valueCounts.length, random), evaluations, discountFactor, reservationValue);
+                spaces.add(new AdditiveUtilitySpace(domain, profileFile.getAbsolutePath()));
+            }
+
+            long outcomes = 1;
+            for (int valueCount : valueCounts)
+                outcomes *= valueCount;
+
+            return new SyntheticDomain(domain, spaces, outcomes);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null)
+                for (File file : files)
+                    file.delete();
+            directory.delete();
+        }
+    }
+
+    private static double[] randomWeights(int issues, Random random) {
+        double[] weights = new double[issues];
+        double sum = 0;
+        for (int i = 0; i < issues; ++i) {
+            weights[i] = 0.1 + random.nextDouble();
+            sum += weights[i];
+        }
+        for (int i = 0; i < issues; ++i)
+            weights[i] /= sum;
+        return weights;
+    }
+
+    private static int[][] randomEvaluations(int[] valueCounts, Random random) {
+        int[][] evaluations = new int[valueCounts.length][];
+        for (int i = 0; i < valueCounts.length; ++i) {
+            evaluations[i] = new int[valueCounts[i]];
+            for (int j = 0; j < valueCounts[i]; ++j)
+                evaluations[i][j] = 1 + random.nextInt(10);
+        }
+        return evaluations;
+    }
+
+    private static int[][] mirror(int[][] evaluations, Random random) {
+        int[][] mirrored = new int[evaluations.length][];
+        for (int i = 0; i < evaluations.length; ++i) {
+            mirrored[i] = new int[evaluations[i].length];
+            for (int j = 0; j < evaluations[i].length; ++j)
+                mirrored[i][j] = Math.max(1, Math.min(10, 11 - evaluations[i][j] + random.nextInt(3) - 1));
+        }
+        return mirrored;
+    }
+
+    private static void writeDomain(File file, int[] valueCounts) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("<negotiation_template>");
+            out.println("<utility_space number_of_issues=\"" + valueCounts.length + "\">");
+            out.println("<objective index=\"0\" description=\"\" name=\"root\" type=\"objective\" etype=\"objective\">");
+            for (int i = 0; i < valueCounts.length; ++i) {
+                out.println("<issue name=\"issue" + (i + 1) + "\" index=\"" + (i + 1) + "\" etype=\"discrete\" type=\"discrete\" vtype=\"discrete\">");
+                for (int j = 0; j < valueCounts[i]; ++j)
+                    out.println("<item index=\"" + (j + 1) + "\" value=\"value" + (j + 1) + "\"></item>");
+                out.println("</issue>");
+            }
+            out.println("</objective>");
+            out.println("</utility_space>");
+            out.println("</negotiation_template>");
+        }
+    }
+
+    private static void writeProfile(File file, int[] valueCounts, double[] weights, int[][] evaluations, double discountFactor, double reservationValue) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            out.println("<utility_space>");
+            out.println("<objective index=\"0\" etype=\"objective\" type=\"objective\" description=\"\" name=\"any\">");
+            for (int i = 0; i < valueCounts.length; ++i) {
+                out.println("<issue index=\"" + (i + 1) + "\" etype=\"discrete\" type=\"discrete\" vtype=\"discrete\" name=\"issue" + (i + 1) + "\">");
+                for (int j = 0; j < valueCounts[i]; ++j)
+                    out.println("<item index=\"" + (j + 1) + "\" value=\"value" + (j + 1) + "\" evaluation=\"" + evaluations[i][j] + "\"></item>");
+                out.println("</issue>");
+                out.println("<weight index=\"" + (i + 1) + "\" value=\"" + weights[i] + "\"></weight>");
+            }
+            out.println("</objective>");
+            out.println("<reservation value=\"" + reservationValue + "\"/>");
+            out.println("<discount_factor value=\"" + discountFactor + "\"/>");
+            out.println("</utility_space>");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package twistedfate.sim;
+
+import genius.core.AgentID;
+import genius.core.Bid;
+import genius.core.Deadline;
+import genius.core.DeadlineType;
+import genius.core.actions.Accept;
+import genius.core.actions.Action;
+import genius.core.actions.EndNegotiation;
+import genius.core.actions.Inform;
+import genius.core.actions.Offer;
+import genius.core.parties.NegotiationInfo;
+import genius.core.parties.NegotiationParty;
+import genius.core.timeline.DiscreteTimeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Headless bilateral sessions of the agent against stand-in opponents, run in parallel on a fork-join pool.
+ * <p>
+ * Every session gets a new agent, timeline and opponent, and the scenarios are only read, so sessions share no
+ * mutable state and the results are aggregated by combining per-thread summaries.
+ * <p>
+ * Usage: Tournament [shape [scenarios [sessions [rounds [threads [agent class]]]]]]
+ */
+public final class Tournament {
+    static final AgentID AGENT = new AgentID("TwistedFate@1");
+    static final List<Class<? extends Action>> ACTIONS = Arrays.asList(Accept.class, Offer.class, EndNegotiation.class);
+
+    final String agentClass;
+    final int rounds;
+    // The opponents a failed session was reported for, only the first failure against each is printed
+    final Set<StandInOpponent.Kind> reported = ConcurrentHashMap.newKeySet();
+
+    public Tournament(String agentClass, int rounds) {
+        this.agentClass = agentClass;
+        this.rounds = rounds;
+    }
+
+    /**
+     * The outcome of a single session, with the (discounted) utilities of the agreement or the reservation values.
+     */
+    public static final class Result {
+        public final StandInOpponent.Kind opponent;
+        public final boolean agreement, failed;
+        public final double agentUtility, opponentUtility;
+        public final int round;
+
+        Result(StandInOpponent.Kind opponent, boolean agreement, boolean failed, double agentUtility, double opponentUtility, int round) {
+            this.opponent = opponent;
+            this.agreement = agreement;
+            this.failed = failed;
+            this.agentUtility = agentUtility;
+            this.opponentUtility = opponentUtility;
+            this.round = round;
+        }
+    }
+
+    /**
+     * Running totals over a set of sessions.
+     */
+    public static final class Summary {
+        public int sessions, agreements, failures;
+        public double agentUtility, opponentUtility, nashProduct, utilityGap, rounds;
+
+        public void add(Result result) {
+            ++sessions;
+            agreements += result.agreement ? 1 : 0;
+            failures += result.failed ? 1 : 0;
+            agentUtility += result.agentUtility;
+            opponentUtility += result.opponentUtility;
+            nashProduct += result.agentUtility * result.opponentUtility;
+            utilityGap += Math.abs(result.agentUtility - result.opponentUtility);
+            rounds += result.round;
+        }
+
+        public Summary combine(Summary other) {
+            sessions += other.sessions;
+            agreements += other.agreements;
+            failures += other.failures;
+            agentUtility += other.agentUtility;
+            opponentUtility += other.opponentUtility;
+            nashProduct += other.nashProduct;
+            utilityGap += other.utilityGap;
+            rounds += other.rounds;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            double n = Math.max(1, sessions);
+            return String.format(Locale.ROOT, "sessions %6d | agreements %6.1f%% | agent %.3f | opponent %.3f | nash %.3f | gap %.3f | rounds %6.1f | failures %d",
+                    sessions, 100 * agreements / n, agentUtility / n, opponentUtility / n, nashProduct / n, utilityGap / n, rounds / n, failures);
+        }
+    }
+
+    /**
+     * Play one session of alternating offers. The agent opens on even seeds, the opponent on odd ones.
+     *
+     * @param scenario
+     *            The profiles of both sides.
+     * @param kind
+     *            The strategy of the opponent.
+     * @param seed
+     *            Seed of the agent and the opponent.
+     * @return The outcome of the session.
+     */
+    public Result play(Scenario scenario, StandInOpponent.Kind kind, long seed) {
+        DiscreteTimeline timeline = new DiscreteTimeline(rounds);
+        StandInOpponent opponent = kind.create();
+        // Named after the strategy, so agents that remember their opponents can tell them apart
+        AgentID opponentId = new AgentID(kind + "@2");
+        opponent.init(scenario, timeline, new Random(seed));
+
+        Bid agentBid = null, agreement = null;
+        boolean agentFirst = seed % 2 == 0;
+        NegotiationParty agent = null;
+        boolean ended = false;
+        try {
+            agent = (NegotiationParty) Class.forName(agentClass).getDeclaredConstructor().newInstance();
+            agent.init(new NegotiationInfo(scenario.agentProfile, new Deadline(rounds, DeadlineType.ROUND), timeline, seed, AGENT, null));
+            agent.receiveMessage(null, new Inform(null, "NumberOfAgents", 2));
+
+            Bid opponentBid = null;
+            session:
+            for (; timeline.getRound() <= rounds; timeline.increment()) {
+                for (int turn = 0; turn < 2; ++turn) {
+                    if ((turn == 0) == agentFirst) {
+                        Action action = agent.chooseAction(ACTIONS);
+                        if (action instanceof Accept && opponentBid != null) {
+                            agreement = opponentBid;
+                            break session;
+                        }
+                        if (!(action instanceof Offer))
+                            break session;
+                        agentBid = ((Offer) action).getBid();
+                    } else {
+                        Bid next = opponent.propose(agentBid);
+                        if (opponent.accepts(agentBid, next)) {
+                            agreement = agentBid;
+                            agent.receiveMessage(opponentId, new Accept(opponentId, agentBid));
+                            break session;
+                        }
+                        opponentBid = next;
+                        agent.receiveMessage(opponentId, new Offer(opponentId, opponentBid));
+                    }
+                }
+            }
+
+            ended = true;
+            agent.negotiationEnded(agreement);
+        } catch (Exception e) {
+            if (reported.add(kind)) {
+                System.err.println("Session " + seed + " against " + kind + " failed (later failures against " + kind + " are only counted):");
+                e.printStackTrace();
+            }
+
+            // The agent still gets to wrap up (write its events and models), as it would in Genius
+            if (agent != null && !ended) {
+                try {
+                    agent.negotiationEnded(null);
+                } catch (Exception ignored) {
+                }
+            }
+
+            // A crashing agent ends the session without an agreement, as it would in Genius
+            return new Result(kind, false, true, scenario.agentProfile.getReservationValueUndiscounted(),
+                    scenario.opponentProfile.getReservationValueUndiscounted(), timeline.getRound());
+        }
+
+        if (agreement == null)
+            return new Result(kind, false, false, scenario.agentProfile.getReservationValueUndiscounted(),
+                    scenario.opponentProfile.getReservationValueUndiscounted(), Math.min(timeline.getRound(), rounds));
+
+        return new Result(kind, true, false, scenario.agentProfile.getUtilityWithDiscount(agreement, timeline),
+                scenario.opponentProfile.getUtilityWithDiscount(agreement, timeline), timeline.getRound());
+    }
+
+    /**
+     * Play the given number of sessions for every scenario and opponent, in parallel.
+     *
+     * @return The summary of the sessions against each opponent.
+     */
+    public Map<StandInOpponent.Kind, Summary> run(List<Scenario> scenarios, List<StandInOpponent.Kind> kinds, int sessions, ForkJoinPool pool) throws Exception {
+        int perScenario = kinds.size() * sessions;
+        return pool.submit(() -> IntStream.range(0, scenarios.size() * perScenario).parallel()
+                .mapToObj(i -> play(scenarios.get(i / perScenario), kinds.get(i % perScenario / sessions), i))
+                .collect(Collectors.groupingBy(result -> result.opponent, () -> new EnumMap<>(StandInOpponent.Kind.class),
+                        Collector.of(Summary::new, Summary::add, Summary::combine)))).get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String shape = args.length > 0 ? args[0] : "5x6";
+        int scenarioCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 250;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 180;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        String agentClass = args.length > 5 ? args[5] : "TwistedFateProbe";
+
+        List<Scenario> scenarios = new ArrayList<>();
+        for (int i = 0; i < scenarioCount; ++i)
+            scenarios.add(Scenario.generate(shape, i + 1));
+
+        List<StandInOpponent.Kind> kinds = Arrays.asList(StandInOpponent.Kind.values());
+        Tournament tournament = new Tournament(agentClass, rounds);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        long start = System.nanoTime();
+        Map<StandInOpponent.Kind, Summary> summaries = tournament.run(scenarios, kinds, sessions, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        Summary total = new Summary();
+        for (Map.Entry<StandInOpponent.Kind, Summary> entry : summaries.entrySet()) {
+            System.out.printf(Locale.ROOT, "%-12s %s%n", entry.getKey(), entry.getValue());
+            total.combine(entry.getValue());
+        }
+        System.out.printf(Locale.ROOT, "%-12s %s%n", "ALL", total);
+        System.out.printf(Locale.ROOT, "%d sessions on %d threads in %.2fs (%.1f sessions/s)%n", total.sessions, threads, seconds, total.sessions / seconds);
+    }
+}
@@ -0,0 +1,127 @@
+import genius.core.Bid;
+import genius.core.issue.Issue;
+import genius.core.issue.IssueInteger;
+import genius.core.issue.IssueReal;
+import genius.core.issue.ValueInteger;
+import genius.core.issue.ValueReal;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BidCodecTest {
+    /**
+     * Packing and unpacking keeps every ordinal, also when the issues take up all 64 bits.
+     */
+    @Test
+    public void packRoundTrip() throws Exception {
+        for (String shape : new String[] { "3,5,8,13,2", "8x256" }) {
+            TwistedFate.BidCodec codec = getCodec(shape);
+            assertTrue(shape, codec.packable);
+
+            Random random = new Random(1);
+            int[] ordinals = new int[codec.width()], unpacked = new int[codec.width()];
+            for (int k = 0; k < 1000; ++k) {
+                // The largest ordinals set the highest bits of each issue
+                for (int i = 0; i < ordinals.length; ++i)
+                    ordinals[i] = k == 0 ? codec.sizes[i] - 1 : random.nextInt(codec.sizes[i]);
+
+                codec.unpack(codec.pack(ordinals, 0), unpacked, 0);
+                assertArrayEquals(shape, ordinals, unpacked);
+            }
+        }
+    }
+
+    /**
+     * Bids too wide for a long are stored by column and read back unchanged.
+     */
+    @Test
+    public void columnarRoundTrip() throws Exception {
+        TwistedFate.BidCodec codec = getCodec("12x100");
+        assertFalse(codec.packable);
+
+        Random random = new Random(2);
+        int[][] bids = new int[50][codec.width()];
+        TwistedFate.OutcomeStore store = codec.newStore(bids.length);
+        for (int k = 0; k < bids.length; ++k) {
+            for (int i = 0; i < codec.width(); ++i)
+                bids[k][i] = random.nextInt(codec.sizes[i]);
+            store.set(k, bids[k], 0);
+        }
+
+        int[] ordinals = new int[codec.width()];
+        for (int k = 0; k < bids.length; ++k) {
+            store.get(k, ordinals, 0);
+            assertArrayEquals(bids[k], ordinals);
+        }
+    }
+
+    /**
+     * Encoding a decoded bid gives back its ordinals.
+     */
+    @Test
+    public void encodeRoundTrip() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("3,5,8,13,2", 1, 1);
+        TwistedFate.BidCodec codec = new TwistedFate.BidCodec(domain.domain, domain.domain.getIssues(), 32);
+
+        Random random = new Random(3);
+        int[] ordinals = new int[codec.width()], encoded = new int[codec.width()];
+        for (int k = 0; k < 1000; ++k) {
+            Bid bid = domain.domain.getRandomBid(random);
+            codec.encode(bid, ordinals, 0);
+            assertEquals(bid, codec.decode(ordinals, 0));
+
+            codec.encode(codec.decode(ordinals, 0), encoded, 0);
+            assertArrayEquals(ordinals, encoded);
+        }
+    }
+
+    /**
+     * Integer and real issues map every value of their range to a bucket, and each bucket decodes to a value of its own.
+     */
+    @Test
+    public void bucketsCoverTheRange() {
+        // A range just wider than the number of buckets gets buckets of one and of two integers
+        List<Issue> issues = Arrays.asList(new IssueInteger("small", 1, 1, 10), new IssueInteger("wide", 2, 100, 5000), new IssueReal("real", 3, 0.0, 30.0), new IssueInteger("narrow", 4, 0, 39));
+        TwistedFate.BidCodec codec = new TwistedFate.BidCodec(null, issues, 32);
+
+        assertArrayEquals(new int[] { 10, 32, 32, 32 }, codec.sizes);
+        assertFalse(codec.exact);
+
+        for (int i = 0; i < codec.width(); ++i) {
+            for (int j = 0; j < codec.sizes[i]; ++j)
+                assertEquals("issue " + i, j, codec.getOrdinal(i, codec.getValue(i, j)));
+        }
+
+        for (int value = 1; value <= 10; ++value)
+            assertEquals(value - 1, codec.getOrdinal(0, new ValueInteger(value)));
+        assertEquals(0, codec.getOrdinal(1, new ValueInteger(100)));
+        assertEquals(31, codec.getOrdinal(1, new ValueInteger(5000)));
+        assertEquals(0, codec.getOrdinal(2, new ValueReal(0.0)));
+        assertEquals(31, codec.getOrdinal(2, new ValueReal(30.0)));
+
+        // Every integer lands in a bucket next to the one of the integer before it
+        for (int position : new int[] { 1, 3 }) {
+            IssueInteger issue = (IssueInteger) issues.get(position);
+            int previous = 0;
+            for (int value = issue.getLowerBound(); value <= issue.getUpperBound(); ++value) {
+                int ordinal = codec.getOrdinal(position, new ValueInteger(value));
+                assertTrue("value " + value, ordinal == previous || ordinal == previous + 1);
+                previous = ordinal;
+            }
+            assertEquals(31, previous);
+        }
+    }
+
+    static TwistedFate.BidCodec getCodec(String shape) throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate(shape, 1, 1);
+        return new TwistedFate.BidCodec(domain.domain, domain.domain.getIssues(), 32);
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BidSamplerTest {
+    /**
+     * The binary search over the prefix sums picks the same positions as a linear scan over the weights does with the
+     * same random numbers, also once the weights outgrow the initial buffer.
+     */
+    @Test
+    public void matchesLinearScan() {
+        TwistedFate.BidSampler sampler = new TwistedFate.BidSampler(new SplittableRandom(21));
+        SplittableRandom reference = new SplittableRandom(21);
+        Random random = new Random(22);
+
+        for (int k = 0; k < 2000; ++k) {
+            int size = 1 + random.nextInt(k < 1000 ? 16 : 100);
+            double[] weights = new double[size + 3];
+            double sum = 0;
+            for (int i = 0; i < size; ++i) {
+                weights[i] = random.nextInt(4) == 0 ? 0 : random.nextDouble();
+                sum += weights[i];
+            }
+            weights[size] = 1e9;
+
+            int expected = size - 1;
+            if (sum > 0) {
+                double target = reference.nextDouble() * sum, prefix = 0;
+                for (expected = 0; expected < size - 1; ++expected) {
+                    prefix += weights[expected];
+                    if (prefix > target)
+                        break;
+                }
+            }
+
+            assertEquals("draw " + k, expected, sampler.sample(weights, size));
+        }
+    }
+
+    /**
+     * Positions are picked in proportion to their weight, positions without weight never.
+     */
+    @Test
+    public void followsTheWeights() {
+        TwistedFate.BidSampler sampler = new TwistedFate.BidSampler(new SplittableRandom(3));
+        double[] weights = { 0, 1, 2, 0, 5, 2 };
+        int draws = 100000;
+        int[] counts = new int[weights.length];
+        for (int k = 0; k < draws; ++k)
+            counts[sampler.sample(weights, weights.length)]++;
+
+        for (int i = 0; i < weights.length; ++i) {
+            double p = weights[i] / 10, expected = p * draws;
+            assertTrue("position " + i + " picked " + counts[i] + " times", Math.abs(counts[i] - expected) <= 4 * Math.sqrt(draws * p * (1 - p)));
+        }
+    }
+
+    /**
+     * Samplers seeded alike make the same picks, so a session can be replayed; weights without a positive sum fall
+     * back to the last position.
+     */
+    @Test
+    public void replaysFromSeed() {
+        TwistedFate.BidSampler first = new TwistedFate.BidSampler(new SplittableRandom(8));
+        TwistedFate.BidSampler second = new TwistedFate.BidSampler(new SplittableRandom(8));
+        double[] weights = { 0.5, 0.1, 0.9, 0.3, 0.2 };
+        for (int k = 0; k < 1000; ++k)
+            assertEquals(first.sample(weights, weights.length), second.sample(weights, weights.length));
+
+        assertEquals(2, first.sample(new double[] { 0, 0, 0 }, 3));
+        assertEquals(1, first.sample(new double[] { 0, Double.NaN }, 2));
+    }
+}
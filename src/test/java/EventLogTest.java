@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventLogTest {
+    /**
+     * Events reach the sink in the order they were recorded, and every event is either drained or counted as dropped.
+     */
+    @Test
+    public void drainsInOrder() {
+        List<Integer> rounds = new ArrayList<>();
+        TwistedFate.EventLog log = new TwistedFate.EventLog(event -> rounds.add(event.round), 64);
+        for (int round = 0; round < 100000; ++round)
+            log.record(round, null, TwistedFate.EventType.OFFER, round);
+        log.close();
+
+        for (int i = 1; i < rounds.size(); ++i)
+            assertTrue("round " + rounds.get(i), rounds.get(i) > rounds.get(i - 1));
+        assertEquals(100000, rounds.size() + log.dropped);
+    }
+
+    /**
+     * While the sink is stuck, the ring buffer fills up and further events are dropped instead of blocking.
+     */
+    @Test
+    public void dropsWhenFull() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1), release = new CountDownLatch(1);
+        List<Integer> rounds = new ArrayList<>();
+        TwistedFate.EventLog log = new TwistedFate.EventLog(event -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rounds.add(event.round);
+        }, 4);
+
+        log.record(0, null, TwistedFate.EventType.START, 1);
+        writing.await();
+        for (int round = 1; round < 8; ++round)
+            log.record(round, null, TwistedFate.EventType.OFFER, 1);
+        assertEquals(4, log.dropped);
+
+        release.countDown();
+        log.close();
+        assertEquals(Arrays.asList(0, 1, 2, 3), rounds);
+    }
+}
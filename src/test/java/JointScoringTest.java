@@ -0,0 +1,81 @@
+import genius.core.Bid;
+import genius.core.misc.Range;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class JointScoringTest {
+    /**
+     * The scores computed in parallel from the value tables are the Nash product or the minimum of the estimates of
+     * every model, computed one bid after the other; bids skipped by the stride score 0.
+     */
+    @Test
+    public void parallelScoresMatchSerialObjective() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("3,5,8,13", 1, 12);
+        TwistedFate agent = TestAgents.create(domain.profiles.get(0));
+        Random random = new Random(14);
+
+        List<TwistedFate.PreferenceModel> models = new ArrayList<>();
+        double[][][] tables = new double[3][][];
+        for (int k = 0; k < tables.length; ++k) {
+            TwistedFate.PreferenceModel model = agent.new PreferenceModel(agent.CTX_ISSUES);
+            Bid favourite = domain.domain.getRandomBid(random);
+            for (int n = 0; n < 50; ++n)
+                model.update(random.nextBoolean() ? favourite : domain.domain.getRandomBid(random));
+            model.refreshSnapshot();
+            models.add(model);
+            tables[k] = model.valueUtilities;
+        }
+
+        int width = agent.CTX_CODEC.width();
+        TwistedFate.Candidates candidates = new TwistedFate.Candidates(width);
+        agent.CTX_OUTCOMES.getBidsInRange(new Range(-1, 2), candidates);
+        assertEquals(3 * 5 * 8 * 13, candidates.size);
+
+        for (TwistedFate.JointObjective objective : TwistedFate.JointObjective.values()) {
+            for (int stride : new int[] { 1, 7 }) {
+                new TwistedFate.JointScoring(candidates, tables, objective, agent.CTX_BUDGET, stride, 16, 0, candidates.size).invoke();
+
+                for (int i = 0; i < candidates.size; ++i) {
+                    double expected = 0;
+                    if (i % stride == 0) {
+                        expected = objective == TwistedFate.JointObjective.NASH_PRODUCT ? 1 : Double.MAX_VALUE;
+                        for (TwistedFate.PreferenceModel model : models) {
+                            double utility = model.getEstimatedUtility(agent.CTX_CODEC.decode(candidates.ordinals, i * width));
+                            expected = objective == TwistedFate.JointObjective.NASH_PRODUCT ? expected * utility : Math.min(expected, utility);
+                        }
+                    }
+                    assertEquals(objective + " stride " + stride + " bid " + i, expected, candidates.scores[i], 1e-12);
+                }
+            }
+        }
+    }
+
+    /**
+     * Once the search budget is cut, no bid is scored.
+     */
+    @Test
+    public void cutBudgetScoresNothing() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("3,5,8,13", 1, 12);
+        TwistedFate agent = TestAgents.create(domain.profiles.get(0));
+        TwistedFate.PreferenceModel model = agent.new PreferenceModel(agent.CTX_ISSUES);
+        Random random = new Random(15);
+        for (int n = 0; n < 50; ++n)
+            model.update(domain.domain.getRandomBid(random));
+        model.refreshSnapshot();
+
+        TwistedFate.Candidates candidates = new TwistedFate.Candidates(agent.CTX_CODEC.width());
+        agent.CTX_OUTCOMES.getBidsInRange(new Range(-1, 2), candidates);
+        TwistedFate.SearchBudget budget = new TwistedFate.SearchBudget(false, 1, 1, 0);
+        budget.cut = true;
+        new TwistedFate.JointScoring(candidates, new double[][][] { model.valueUtilities, model.valueUtilities }, TwistedFate.JointObjective.MAX_MIN, budget, 1, 16, 0, candidates.size).invoke();
+
+        for (int i = 0; i < candidates.size; ++i)
+            assertEquals(0, candidates.scores[i], 0);
+    }
+}
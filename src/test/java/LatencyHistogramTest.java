@@ -0,0 +1,56 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    /**
+     * Every value up to the largest one counted gets a bucket of its own inside the array, values beyond go to the
+     * last bucket.
+     */
+    @Test
+    public void everyValueHasABucket() {
+        TwistedFate.LatencyHistogram histogram = new TwistedFate.LatencyHistogram();
+        long largest = (1L << 44) - 1;
+
+        assertEquals(histogram.counts.length - 1, TwistedFate.LatencyHistogram.getIndex(largest));
+        assertEquals(largest, TwistedFate.LatencyHistogram.getHighestValue(histogram.counts.length - 1));
+
+        for (long value : new long[] { -1, 0, 1, 127, 128, 255, 256, 1L << 43, largest, 1L << 44, Long.MAX_VALUE })
+            histogram.record(value);
+
+        assertEquals(11, histogram.count);
+        assertEquals(largest, histogram.max);
+        assertEquals(largest, histogram.getValueAtPercentile(100));
+        assertEquals(3, histogram.counts[histogram.counts.length - 1]);
+    }
+
+    /**
+     * A value is counted in a bucket whose top is at most 1/64 above it.
+     */
+    @Test
+    public void bucketsAreTight() {
+        for (int shift = 0; shift < 44; ++shift) {
+            for (long value : new long[] { 1L << shift, (1L << shift) + 1, (3L << shift) / 2, (2L << shift) - 1 }) {
+                if (value >= 1L << 44)
+                    continue;
+
+                int index = TwistedFate.LatencyHistogram.getIndex(value);
+                long highest = TwistedFate.LatencyHistogram.getHighestValue(index);
+                assertTrue("value " + value, highest >= value && highest - value <= value / 64);
+                assertTrue("value " + value, index == 0 || TwistedFate.LatencyHistogram.getHighestValue(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        TwistedFate.LatencyHistogram histogram = new TwistedFate.LatencyHistogram();
+        for (long value = 1; value <= 100; ++value)
+            histogram.record(value);
+
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+}
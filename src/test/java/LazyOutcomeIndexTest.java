@@ -0,0 +1,107 @@
+import genius.core.Bid;
+import genius.core.misc.Range;
+import genius.core.utility.AdditiveUtilitySpace;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LazyOutcomeIndexTest {
+    /**
+     * The branch and bound range search finds exactly the bids a scan over the whole outcome space finds.
+     */
+    @Test
+    public void rangesMatchBruteForce() throws Exception {
+        AdditiveUtilitySpace profile = SyntheticDomain.generate("4,5,6,7", 1, 8).profiles.get(0);
+        TwistedFate agent = TestAgents.create(profile);
+        TwistedFate.LazyOutcomeIndex index = new TwistedFate.LazyOutcomeIndex(agent.CTX_CODEC, agent.CTX_UTILITIES.issueUtilities, agent.CTX_BUDGET, new SplittableRandom(1), 1000);
+        List<Bid> bids = getAllBids(agent);
+
+        Random random = new Random(3);
+        int width = agent.CTX_CODEC.width();
+        TwistedFate.Candidates candidates = new TwistedFate.Candidates(width);
+        for (int k = 0; k < 200; ++k) {
+            double a = random.nextDouble(), b = random.nextDouble();
+            double lower = Math.min(a, b), upper = Math.max(a, b);
+
+            Set<Bid> expected = new HashSet<>();
+            for (Bid bid : bids) {
+                double utility = profile.getUtility(bid);
+                if (utility >= lower && utility <= upper)
+                    expected.add(bid);
+            }
+
+            index.getBidsInRange(new Range(lower, upper), candidates);
+            Set<Bid> actual = new HashSet<>();
+            for (int i = 0; i < candidates.size; ++i) {
+                Bid bid = agent.CTX_CODEC.decode(candidates.ordinals, i * width);
+                assertEquals(profile.getUtility(bid), candidates.utilities[i], 1e-12);
+                actual.add(bid);
+            }
+
+            assertTrue(index.isExhaustive());
+            assertEquals(candidates.size, actual.size());
+            assertEquals("range " + lower + " - " + upper, expected, actual);
+        }
+    }
+
+    /**
+     * A range with more bids than the limit is sampled: no more than the limit is collected, all of it in range.
+     */
+    @Test
+    public void largeRangesAreSampled() throws Exception {
+        AdditiveUtilitySpace profile = SyntheticDomain.generate("4,5,6,7", 1, 8).profiles.get(0);
+        TwistedFate agent = TestAgents.create(profile);
+        TwistedFate.LazyOutcomeIndex index = new TwistedFate.LazyOutcomeIndex(agent.CTX_CODEC, agent.CTX_UTILITIES.issueUtilities, agent.CTX_BUDGET, new SplittableRandom(1), 50);
+
+        int width = agent.CTX_CODEC.width();
+        TwistedFate.Candidates candidates = new TwistedFate.Candidates(width);
+        index.getBidsInRange(new Range(0.2, 0.8), candidates);
+
+        assertFalse(index.isExhaustive());
+        assertTrue(candidates.size > 0 && candidates.size <= 50);
+        for (int i = 0; i < candidates.size; ++i) {
+            double utility = profile.getUtility(agent.CTX_CODEC.decode(candidates.ordinals, i * width));
+            assertTrue("utility " + utility, utility >= 0.2 - 1e-12 && utility <= 0.8 + 1e-12);
+        }
+    }
+
+    /**
+     * The bid found near a utility is as close to it as the closest bid of the outcome space.
+     */
+    @Test
+    public void nearestBidMatchesBruteForce() throws Exception {
+        AdditiveUtilitySpace profile = SyntheticDomain.generate("4,5,6,7", 1, 9).profiles.get(0);
+        TwistedFate agent = TestAgents.create(profile);
+        TwistedFate.LazyOutcomeIndex index = new TwistedFate.LazyOutcomeIndex(agent.CTX_CODEC, agent.CTX_UTILITIES.issueUtilities, agent.CTX_BUDGET, new SplittableRandom(1), 1000);
+        List<Bid> bids = getAllBids(agent);
+
+        Random random = new Random(4);
+        for (int k = 0; k < 200; ++k) {
+            double target = random.nextDouble() * 1.2 - 0.1;
+
+            double nearest = Double.POSITIVE_INFINITY;
+            for (Bid bid : bids)
+                nearest = Math.min(nearest, Math.abs(profile.getUtility(bid) - target));
+
+            assertEquals("target " + target, nearest, Math.abs(profile.getUtility(index.getBidNearUtility(target)) - target), 1e-12);
+        }
+    }
+
+    private static List<Bid> getAllBids(TwistedFate agent) {
+        List<Bid> bids = new ArrayList<>();
+        for (Bid bid : agent.CTX_OUTCOMES)
+            bids.add(bid);
+        assertEquals(4 * 5 * 6 * 7, bids.size());
+        return bids;
+    }
+}
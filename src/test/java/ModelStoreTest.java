@@ -0,0 +1,104 @@
+import genius.core.AgentID;
+import org.junit.Before;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModelStoreTest {
+    static final AgentID OPPONENT = new AgentID("Boulware@3");
+
+    TwistedFate.BidCodec codec;
+    String directory;
+
+    @Before
+    public void setUp() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("3,5,8", 1, 1);
+        codec = new TwistedFate.BidCodec(domain.domain, domain.domain.getIssues(), 32);
+        directory = Files.createTempDirectory("twistedfate-models").toString();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        TwistedFate.ModelStore store = new TwistedFate.ModelStore(directory, codec, 1);
+        assertNull(store.load(OPPONENT));
+
+        int[][] counts = { { 1, 2, 3 }, { 0, 4, 0, 5, 1 }, { 7, 0, 0, 0, 0, 0, 0, 3 } };
+        store.save(OPPONENT, counts, 10);
+
+        // The same opponent in a later session, under a new id
+        int[][] loaded = new TwistedFate.ModelStore(directory, codec, 1).load(new AgentID("Boulware@7"));
+        for (int i = 0; i < counts.length; ++i)
+            assertArrayEquals(counts[i], loaded[i]);
+
+        long[] header = new long[2];
+        store.read(store.getFile(OPPONENT), header);
+        assertEquals(1, header[0]);
+        assertEquals(10, header[1]);
+    }
+
+    @Test
+    public void decay() throws Exception {
+        new TwistedFate.ModelStore(directory, codec, 0.5).save(OPPONENT, new int[][] { { 4, 2, 0 }, { 8, 0, 0, 0, 0 }, { 0, 0, 0, 0, 0, 0, 0, 8 } }, 8);
+
+        int[][] loaded = new TwistedFate.ModelStore(directory, codec, 0.5).load(OPPONENT);
+        assertArrayEquals(new int[] { 2, 1, 0 }, loaded[0]);
+        assertArrayEquals(new int[] { 4, 0, 0, 0, 0 }, loaded[1]);
+    }
+
+    /**
+     * Two sessions that loaded the same model and end one after the other both keep what they learned.
+     */
+    @Test
+    public void concurrentSessionsMerge() throws Exception {
+        new TwistedFate.ModelStore(directory, codec, 1).save(OPPONENT, new int[][] { { 1, 0, 0 }, { 1, 0, 0, 0, 0 }, { 1, 0, 0, 0, 0, 0, 0, 0 } }, 1);
+
+        TwistedFate.ModelStore first = new TwistedFate.ModelStore(directory, codec, 1), second = new TwistedFate.ModelStore(directory, codec, 1);
+        first.load(OPPONENT);
+        second.load(OPPONENT);
+
+        first.save(OPPONENT, new int[][] { { 3, 0, 0 }, { 1, 2, 0, 0, 0 }, { 3, 0, 0, 0, 0, 0, 0, 0 } }, 3);
+        second.save(OPPONENT, new int[][] { { 1, 0, 1 }, { 1, 0, 0, 0, 1 }, { 1, 0, 0, 0, 0, 0, 0, 1 } }, 2);
+
+        int[][] loaded = new TwistedFate.ModelStore(directory, codec, 1).load(OPPONENT);
+        assertArrayEquals(new int[] { 3, 0, 1 }, loaded[0]);
+        assertArrayEquals(new int[] { 1, 2, 0, 0, 1 }, loaded[1]);
+
+        long[] header = new long[2];
+        first.read(first.getFile(OPPONENT), header);
+        assertEquals(3, header[0]);
+        assertEquals(4, header[1]);
+    }
+
+    /**
+     * A truncated or corrupt file is no model at all.
+     */
+    @Test
+    public void malformedFiles() throws Exception {
+        TwistedFate.ModelStore store = new TwistedFate.ModelStore(directory, codec, 1);
+        store.save(OPPONENT, new int[][] { { 1, 2, 3 }, { 0, 4, 0, 5, 1 }, { 7, 0, 0, 0, 0, 0, 0, 3 } }, 10);
+
+        Path file = store.getFile(OPPONENT);
+        byte[] bytes = Files.readAllBytes(file);
+
+        for (int length : new int[] { 0, 3, 20, TwistedFate.ModelStore.HEADER_SIZE, bytes.length - 1 }) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            assertNull("length " + length, store.load(OPPONENT));
+        }
+
+        // Number of issues, then the number of ordinals of the first issue
+        for (int offset : new int[] { 24, 32 }) {
+            for (int value : new int[] { -1, Integer.MAX_VALUE }) {
+                Files.write(file, ByteBuffer.wrap(bytes.clone()).putInt(offset, value).array());
+                assertNull("offset " + offset, store.load(OPPONENT));
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import genius.core.AgentID;
+import genius.core.actions.Offer;
+import genius.core.bidding.BidDetails;
+import genius.core.boaframework.SortedOutcomeSpace;
+import genius.core.misc.Range;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParetoFrontierTest {
+    /**
+     * While the model keeps changing, the bids the frontier returns for a sliding range are exactly the
+     * Pareto-efficient bids of the ranges considered so far, found by brute force over the outcome space.
+     */
+    @Test
+    public void bandMatchesBruteForce() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("5x6", 2, 3);
+        TwistedFate agent = TestAgents.create(domain.profiles.get(0));
+        AgentID opponent = new AgentID("Opponent@2");
+        Random random = new Random(2);
+
+        agent.receiveMessage(opponent, new Offer(opponent, domain.domain.getRandomBid(random)));
+        TwistedFate.PreferenceModel model = agent.OPP_MODELS.get(opponent);
+
+        int width = agent.CTX_CODEC.width();
+        TwistedFate.Candidates all = new TwistedFate.Candidates(width), candidates = new TwistedFate.Candidates(width);
+        agent.CTX_OUTCOMES.getBidsInRange(new Range(-1, 2), all);
+        assertEquals(domain.outcomes, all.size);
+
+        double target = agent.CTX_MAX_UTILITY;
+        for (int step = 0; step < 200; ++step) {
+            if (random.nextInt(3) > 0)
+                agent.receiveMessage(opponent, new Offer(opponent, domain.domain.getRandomBid(random)));
+
+            target -= 0.003;
+            double lower = target - 0.05, upper = target + 0.05;
+            model.frontier.getBidsInRange(new Range(lower, upper), candidates);
+
+            Set<String> found = new TreeSet<>();
+            for (int i = 0; i < candidates.size; ++i)
+                found.add(format(candidates.utilities[i], candidates.scores[i]));
+
+            assertEquals("step " + step, getFrontier(model, all, lower, upper), found);
+        }
+    }
+
+    /**
+     * A sampled range is never covered, so it is queried again every round, but a bid that is already in the band is
+     * not appended again: the band stays within the bids of the range however long the session.
+     */
+    @Test
+    public void sampledRangesDoNotGrowTheBand() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("5x6", 2, 3);
+        TwistedFate agent = TestAgents.create(domain.profiles.get(0), settings -> {
+            settings.CTX_LAZY_THRESHOLD = 1000;
+            settings.CTX_RANGE_LIMIT = 64;
+        });
+        assertTrue(agent.CTX_OUTCOMES instanceof TwistedFate.LazyOutcomeIndex);
+
+        AgentID opponent = new AgentID("Opponent@2");
+        Random random = new Random(4);
+        agent.receiveMessage(opponent, new Offer(opponent, domain.domain.getRandomBid(random)));
+        TwistedFate.PreferenceModel model = agent.OPP_MODELS.get(opponent);
+
+        Range range = new Range(0.4, 0.8);
+        int bidsInRange = 0;
+        for (BidDetails outcome : new SortedOutcomeSpace(domain.profiles.get(0)).getAllOutcomes())
+            bidsInRange += range.getLowerbound() <= outcome.getMyUndiscountedUtil() && outcome.getMyUndiscountedUtil() <= range.getUpperbound() ? 1 : 0;
+
+        TwistedFate.Candidates candidates = new TwistedFate.Candidates(agent.CTX_CODEC.width());
+        for (int round = 0; round < 500; ++round) {
+            if (round % 50 == 0)
+                agent.receiveMessage(opponent, new Offer(opponent, domain.domain.getRandomBid(random)));
+            model.frontier.getBidsInRange(range, candidates);
+
+            TwistedFate.Candidates band = model.frontier.band;
+            Set<String> bids = new HashSet<>();
+            for (int i = 0; i < band.size; ++i)
+                assertTrue("round " + round, bids.add(Arrays.toString(Arrays.copyOfRange(band.ordinals, i * band.width, (i + 1) * band.width))));
+            assertTrue("round " + round, band.size <= bidsInRange);
+        }
+    }
+
+    /**
+     * When every search runs out of time, each one covers the part of the range it got through and the next one
+     * resumes below it, until the whole range is covered and the frontier is the same as without a budget.
+     */
+    @Test
+    public void cutSearchesResume() throws Exception {
+        SyntheticDomain domain = SyntheticDomain.generate("4x16", 2, 6);
+        TwistedFate agent = TestAgents.create(domain.profiles.get(0));
+        CheckBudget budget = new CheckBudget();
+        agent.CTX_BUDGET = budget;
+        agent.CTX_OUTCOMES = TwistedFate.SortedOutcomeIndex.build(agent.CTX_CODEC, agent.CTX_UTILITIES.issueUtilities, budget, 1 << 13);
+
+        AgentID opponent = new AgentID("Opponent@2");
+        Random random = new Random(5);
+        for (int k = 0; k < 10; ++k)
+            agent.receiveMessage(opponent, new Offer(opponent, domain.domain.getRandomBid(random)));
+        TwistedFate.PreferenceModel model = agent.OPP_MODELS.get(opponent);
+
+        int width = agent.CTX_CODEC.width();
+        TwistedFate.Candidates all = new TwistedFate.Candidates(width), candidates = new TwistedFate.Candidates(width);
+        agent.CTX_OUTCOMES.getBidsInRange(new Range(-1, 2), all);
+
+        double lower = 0.3, upper = 0.9;
+        budget.checks = 3;
+        int searches = 0;
+        while (!model.frontier.getGaps(lower, upper).isEmpty()) {
+            assertTrue("no progress after " + searches + " searches", ++searches <= all.size / 1000);
+            budget.startSearch();
+            model.frontier.getBidsInRange(new Range(lower, upper), candidates);
+        }
+        assertTrue(searches > 10);
+
+        Set<String> found = new TreeSet<>();
+        for (int i = 0; i < candidates.size; ++i)
+            found.add(format(candidates.utilities[i], candidates.scores[i]));
+        assertEquals(getFrontier(model, all, lower, upper), found);
+    }
+
+    /**
+     * A budget that runs out after a number of clock checks in every search.
+     */
+    static class CheckBudget extends TwistedFate.SearchBudget {
+        int checks, checked;
+
+        CheckBudget() {
+            super(true, 1, 1, 0);
+        }
+
+        @Override
+        void startSearch(long budgetNanos) {
+            super.startSearch(budgetNanos);
+            checked = 0;
+        }
+
+        @Override
+        boolean isExpired() {
+            if (checks > 0 && ++checked > checks)
+                cut = true;
+            return cut;
+        }
+    }
+
+    /**
+     * The Pareto-efficient bids within the range among all bids of the covered ranges, or the one right above
+     * the range if there are none.
+     */
+    static Set<String> getFrontier(TwistedFate.PreferenceModel model, TwistedFate.Candidates all, double lower, double upper) {
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < all.size; ++i) {
+            for (Range range : model.frontier.covered) {
+                if (all.utilities[i] >= range.getLowerbound() && all.utilities[i] <= range.getUpperbound()) {
+                    points.add(new double[] { all.utilities[i], model.getEstimatedUtility(Arrays.copyOfRange(all.ordinals, i * all.width, (i + 1) * all.width), 0) });
+                    break;
+                }
+            }
+        }
+        points.sort((a, b) -> a[0] != b[0] ? Double.compare(b[0], a[0]) : Double.compare(b[1], a[1]));
+
+        Set<String> frontier = new TreeSet<>();
+        double best = Double.NEGATIVE_INFINITY;
+        double[] above = null;
+        for (double[] point : points) {
+            if (point[1] <= best)
+                continue;
+            best = point[1];
+
+            if (point[0] > upper)
+                above = point;
+            else if (point[0] >= lower)
+                frontier.add(format(point[0], point[1]));
+        }
+
+        if (frontier.isEmpty() && above != null)
+            frontier.add(format(above[0], above[1]));
+        return frontier;
+    }
+
+    static String format(double utility, double estimate) {
+        return String.format("%.9f/%.9f", utility, estimate);
+    }
+}
@@ -0,0 +1,179 @@
+import genius.core.Bid;
+import org.junit.Before;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PreferenceModelTest {
+    SyntheticDomain domain;
+    TwistedFate agent;
+
+    @Before
+    public void setUp() throws Exception {
+        domain = SyntheticDomain.generate("3,5,8,13", 2, 7);
+        agent = TestAgents.create(domain.profiles.get(0));
+    }
+
+    /**
+     * The weights kept from running sums match the standard deviation computed in two passes over the frequencies.
+     */
+    @Test
+    public void weightsMatchTwoPassStandardDeviation() {
+        TwistedFate.PreferenceModel model = agent.new PreferenceModel(agent.CTX_ISSUES);
+        Random random = new Random(11);
+        Bid favourite = domain.domain.getRandomBid(random);
+
+        for (int k = 1; k <= 2000; ++k) {
+            // Skewed towards some values, as a real opponent is
+            Bid bid = random.nextInt(3) == 0 ? favourite : domain.domain.getRandomBid(random);
+            model.update(bid);
+
+            if (k % 100 == 0) {
+                for (int i = 0; i < agent.CTX_ISSUES.size(); ++i)
+                    assertEquals("issue " + i + " after " + k + " bids", getStandardDeviation(model.frequencyTable[i]), model.issueWeights[i], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * A model started from the counts of another has the same weights.
+     */
+    @Test
+    public void warmStartKeepsWeights() {
+        TwistedFate.PreferenceModel model = agent.new PreferenceModel(agent.CTX_ISSUES);
+        Random random = new Random(13);
+        for (int k = 0; k < 500; ++k)
+            model.update(domain.domain.getRandomBid(random));
+
+        TwistedFate.PreferenceModel restored = agent.new PreferenceModel(agent.CTX_ISSUES);
+        restored.warmStart(model.getCounts());
+
+        assertEquals(model.totalBids, restored.totalBids);
+        for (int i = 0; i < agent.CTX_ISSUES.size(); ++i)
+            assertEquals(model.issueWeights[i], restored.issueWeights[i], 1e-12);
+    }
+
+    /**
+     * The ring buffer keeps the last bids in order: the running bid is the oldest one of the window closest to its
+     * average utility, and the best bid is the first one with the highest utility of all bids received.
+     */
+    @Test
+    public void windowTracksRecentAndBestBids() {
+        agent.OPP_WINDOW_SIZE = 5;
+        TwistedFate.PreferenceModel model = agent.new PreferenceModel(agent.CTX_ISSUES);
+        Random random = new Random(17);
+        List<Bid> received = new ArrayList<>();
+
+        for (int k = 0; k < 200; ++k) {
+            Bid bid = domain.domain.getRandomBid(random);
+            model.addToBidHistory(bid);
+            received.add(bid);
+
+            Bid best = null;
+            double bestUtility = 0;
+            for (Bid earlier : received) {
+                if (agent.CTX_UTILITIES.getUtility(earlier) > bestUtility) {
+                    bestUtility = agent.CTX_UTILITIES.getUtility(earlier);
+                    best = earlier;
+                }
+            }
+
+            List<Bid> window = received.subList(Math.max(0, received.size() - 5), received.size());
+            double average = 0;
+            for (Bid recent : window)
+                average += agent.CTX_UTILITIES.getUtility(recent);
+            average /= window.size();
+
+            Bid running = null;
+            double nearest = Double.MAX_VALUE;
+            for (Bid recent : window) {
+                if (Math.abs(agent.CTX_UTILITIES.getUtility(recent) - average) < nearest) {
+                    nearest = Math.abs(agent.CTX_UTILITIES.getUtility(recent) - average);
+                    running = recent;
+                }
+            }
+
+            assertSame("after " + (k + 1) + " bids", best, model.getBestBid());
+            assertEquals(bestUtility, model.getBestBidScore(), 0);
+            assertSame("after " + (k + 1) + " bids", running, model.getRunningBid());
+        }
+    }
+
+    /**
+     * The decayed model, which grows its increment instead of shrinking every count and rescales before it overflows,
+     * keeps the same frequency shares and relative issue weights as counts that are all decayed with every bid.
+     */
+    @Test
+    public void decayedCountsMatchNaiveDecay() {
+        double decay = 0.9;
+        TwistedFate.DecayedPreferenceModel model = agent.new DecayedPreferenceModel(agent.CTX_ISSUES, decay);
+        int issues = agent.CTX_ISSUES.size();
+        double[][] naive = new double[issues][];
+        for (int i = 0; i < issues; ++i)
+            naive[i] = new double[agent.CTX_CODEC.sizes[i]];
+
+        Random random = new Random(19);
+        Bid favourite = domain.domain.getRandomBid(random);
+        int rescales = 0;
+        for (int k = 1; k <= 2000; ++k) {
+            // The opponent changes its mind halfway
+            if (k == 1000)
+                favourite = domain.domain.getRandomBid(random);
+            Bid bid = random.nextInt(3) == 0 ? favourite : domain.domain.getRandomBid(random);
+
+            double increment = model.increment;
+            model.update(bid);
+            if (model.increment < increment)
+                rescales++;
+
+            for (int i = 0; i < issues; ++i) {
+                for (int j = 0; j < naive[i].length; ++j)
+                    naive[i][j] *= decay;
+                naive[i][agent.CTX_CODEC.getOrdinal(i, bid.getValue(agent.CTX_CODEC.issueNumbers[i]))] += 1;
+            }
+
+            if (k % 100 != 0)
+                continue;
+
+            double[] naiveWeights = new double[issues];
+            double naiveTotal = 0, total = 0;
+            for (int i = 0; i < issues; ++i) {
+                double sum = 0, squares = 0;
+                for (int j = 0; j < naive[i].length; ++j) {
+                    sum += naive[i][j];
+                    squares += naive[i][j] * naive[i][j];
+                }
+                for (int j = 0; j < naive[i].length; ++j)
+                    assertEquals("issue " + i + " after " + k + " bids", naive[i][j] / sum, model.getFrequencyShare(i, j), 1e-9);
+
+                double mean = sum / naive[i].length;
+                naiveWeights[i] = Math.sqrt(squares / naive[i].length - mean * mean);
+                naiveTotal += naiveWeights[i];
+                total += model.issueWeights[i];
+            }
+            for (int i = 0; i < issues; ++i)
+                assertEquals("issue " + i + " after " + k + " bids", naiveWeights[i] / naiveTotal, model.issueWeights[i] / total, 1e-9);
+        }
+
+        assertTrue(rescales > 0);
+    }
+
+    static double getStandardDeviation(int[] frequencies) {
+        double mean = 0;
+        for (int frequency : frequencies)
+            mean += frequency;
+        mean /= frequencies.length;
+
+        double variance = 0;
+        for (int frequency : frequencies)
+            variance += (frequency - mean) * (frequency - mean);
+        return Math.sqrt(variance / frequencies.length);
+    }
+}
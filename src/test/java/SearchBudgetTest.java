@@ -0,0 +1,82 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchBudgetTest {
+    static final long SECOND = 1_000_000_000L, MINIMUM = 50_000_000L;
+
+    /**
+     * A search that ran out of time doubles the budget, while quick complete searches bring it back down to the
+     * minimum; the cap of the turn bounds every search.
+     */
+    @Test
+    public void budgetAdaptsToSearchTimes() {
+        TwistedFate.SearchBudget budget = new TwistedFate.SearchBudget(true, 0.5, 2, MINIMUM);
+        budget.startTurn(1000 * SECOND);
+        assertEquals(5 * SECOND, budget.cap);
+
+        budget.startSearch();
+        assertEquals(5 * SECOND, budget.deadline - budget.searchStart);
+        budget.cut = true;
+        budget.stopSearch();
+        assertEquals(10 * SECOND, budget.budget);
+
+        // The doubled budget is still capped by the turn
+        long before = System.nanoTime();
+        budget.startSearch();
+        assertEquals(5 * SECOND, budget.deadline - budget.searchStart);
+        budget.stopSearch();
+        long elapsed = System.nanoTime() - before;
+        assertTrue(budget.budget >= 5 * SECOND / 2);
+        assertTrue(budget.budget <= (5 * SECOND + 2 * elapsed) / 2 + 1);
+
+        for (int k = 0; k < 64; ++k) {
+            budget.startSearch();
+            budget.stopSearch();
+        }
+        assertEquals(MINIMUM, budget.budget);
+    }
+
+    /**
+     * Only a limited budget expires, and once it did the search stays cut until the next one starts.
+     */
+    @Test
+    public void onlyLimitedBudgetsExpire() {
+        TwistedFate.SearchBudget unlimited = new TwistedFate.SearchBudget(false, 0.5, 2, MINIMUM);
+        unlimited.startSearch(0);
+        assertFalse(unlimited.isExpired());
+        unlimited.stopSearch();
+        assertEquals(Long.MAX_VALUE, unlimited.budget);
+
+        TwistedFate.SearchBudget limited = new TwistedFate.SearchBudget(true, 0.5, 2, MINIMUM);
+        limited.startSearch(3600 * SECOND);
+        assertFalse(limited.isExpired());
+        assertFalse(limited.cut);
+
+        limited.startSearch(0);
+        assertTrue(limited.isExpired());
+        assertTrue(limited.cut);
+
+        limited.startSearch(3600 * SECOND);
+        assertFalse(limited.isExpired());
+    }
+
+    /**
+     * The last turn is the one without time for another turn, judged by the measured time between turns.
+     */
+    @Test
+    public void lastTurnFollowsThePace() throws InterruptedException {
+        TwistedFate.SearchBudget budget = new TwistedFate.SearchBudget(true, 0.5, 2, MINIMUM);
+        budget.startTurn(1000 * SECOND);
+        assertFalse(budget.isLastTurn(0));
+
+        Thread.sleep(2);
+        budget.startTurn(1000 * SECOND);
+        assertTrue(budget.turnNanos >= 2_000_000L);
+        assertTrue(budget.isLastTurn(budget.turnNanos));
+        assertFalse(budget.isLastTurn(2 * budget.turnNanos));
+        assertFalse(new TwistedFate.SearchBudget(false, 0.5, 2, MINIMUM).isLastTurn(0));
+    }
+}
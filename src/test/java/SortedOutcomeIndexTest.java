@@ -0,0 +1,46 @@
+import genius.core.Bid;
+import genius.core.bidding.BidDetails;
+import genius.core.boaframework.SortedOutcomeSpace;
+import genius.core.utility.AdditiveUtilitySpace;
+import org.junit.Test;
+import twistedfate.sim.SyntheticDomain;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class SortedOutcomeIndexTest {
+    /**
+     * The index built in parallel from the utility tables lists the same bids by descending utility as Genius does.
+     */
+    @Test
+    public void parallelBuildMatchesSortedOutcomeSpace() throws Exception {
+        AdditiveUtilitySpace profile = SyntheticDomain.generate("4,5,6,7", 1, 5).profiles.get(0);
+        TwistedFate agent = TestAgents.create(profile);
+
+        // A small threshold, so the scoring and the sort are split into many tasks
+        TwistedFate.SortedOutcomeIndex index = TwistedFate.SortedOutcomeIndex.build(agent.CTX_CODEC, agent.CTX_UTILITIES.issueUtilities, agent.CTX_BUDGET, 16);
+        assertNotNull(index);
+
+        List<BidDetails> outcomes = new SortedOutcomeSpace(profile).getAllOutcomes();
+        assertEquals(outcomes.size(), index.utilities.length);
+
+        Set<Bid> expected = new HashSet<>(), actual = new HashSet<>();
+        int i = 0;
+        for (Bid bid : index) {
+            // Bids of equal utility may come in any order, their utilities may not
+            assertEquals("position " + i, outcomes.get(i).getMyUndiscountedUtil(), index.utilities[i], 1e-12);
+            assertEquals("position " + i, profile.getUtility(bid), index.utilities[i], 1e-12);
+
+            expected.add(outcomes.get(i).getBid());
+            actual.add(bid);
+            ++i;
+        }
+
+        assertEquals(outcomes.size(), i);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,36 @@
+import genius.core.AgentID;
+import genius.core.Deadline;
+import genius.core.DeadlineType;
+import genius.core.parties.NegotiationInfo;
+import genius.core.timeline.DiscreteTimeline;
+import genius.core.utility.AdditiveUtilitySpace;
+
+import java.util.function.Consumer;
+
+/**
+ * Agents set up for the tests, as Genius would before the first round.
+ */
+final class TestAgents {
+    static final int ROUNDS = 100;
+
+    private TestAgents() {
+    }
+
+    static TwistedFate create(AdditiveUtilitySpace profile) {
+        return create(profile, agent -> {
+        });
+    }
+
+    /**
+     * @param settings
+     *            Changes the settings of the agent before it is initialised.
+     */
+    static TwistedFate create(AdditiveUtilitySpace profile, Consumer<TwistedFate> settings) {
+        TwistedFate agent = new TwistedFate();
+        agent.LOGGING = false;
+        agent.METRICS = false;
+        settings.accept(agent);
+        agent.init(new NegotiationInfo(profile, new Deadline(ROUNDS, DeadlineType.ROUND), new DiscreteTimeline(ROUNDS), 5, new AgentID("TwistedFate@1"), null));
+        return agent;
+    }
+}